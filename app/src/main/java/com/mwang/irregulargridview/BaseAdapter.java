@@ -8,8 +8,18 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ListIterator;
 
+/**
+ * The items of different sizes have different view types, i.e., the size classes,
+ * so a recycled holder is reused for an item of the same size and the same layout.
+ * The view type also contains the layout kind of the adapter,
+ * so the adapters can share a SizeClassViewPool.
+ */
 public abstract class BaseAdapter extends RecyclerView.Adapter<BaseAdapter.VH>{
 
+    private static final int SIZE_MASK = 0xFF;
+    private static final int HEIGHT_SHIFT = 8;
+    private static final int KIND_SHIFT = 16;
+
     protected Context mContext;
     protected RecyclerView recyclerView;
     private ArrayList<Integer> mSelectedDataIndexSet;
@@ -21,6 +31,32 @@ public abstract class BaseAdapter extends RecyclerView.Adapter<BaseAdapter.VH>{
         mSelectedDataIndexSet = new ArrayList<>();
     }
 
+    /**
+     * Make the view type of the size class.
+     * @param layoutKind A small number which is different for each layout of the items.
+     * @param widthNum
+     * @param heightNum
+     * @return
+     */
+    public static int makeViewType(int layoutKind, int widthNum, int heightNum){
+        return layoutKind << KIND_SHIFT | (heightNum & SIZE_MASK) << HEIGHT_SHIFT
+                | (widthNum & SIZE_MASK);
+    }
+
+    public static int getWidthNum(int viewType){
+        return viewType & SIZE_MASK;
+    }
+
+    public static int getHeightNum(int viewType){
+        return (viewType >>> HEIGHT_SHIFT) & SIZE_MASK;
+    }
+
+    @Override
+    public int getItemViewType(int position){
+        return makeViewType(getLayoutKind(), getItemWidthNum(position),
+                getItemHeightNum(position));
+    }
+
     @Override
     public void onBindViewHolder(final VH holder, int position){
 
@@ -105,6 +141,15 @@ public abstract class BaseAdapter extends RecyclerView.Adapter<BaseAdapter.VH>{
         }
     }
 
+    /**
+     * @return The layout kind of the items, see makeViewType().
+     */
+    protected abstract int getLayoutKind();
+
+    protected abstract int getItemWidthNum(int position);
+
+    protected abstract int getItemHeightNum(int position);
+
     protected abstract void updateSelectedItem(VH holder);
 
     protected abstract void updateUnselectedItem(VH holder);
@@ -74,6 +74,13 @@ public abstract class BaseFragment extends Fragment implements ActionMode.Callba
         mActionMode = null;
     }
 
+    /**
+     * @return The view pool shared by the fragments of the activity.
+     */
+    protected SizeClassViewPool getSharedViewPool() {
+        return ((MainActivity) getActivity()).getViewPool();
+    }
+
     public abstract void initData();
 
     public abstract void deleteSelectedItems();
@@ -0,0 +1,178 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+
+/**
+ * The packing engine of the dense mode of the IrregularLayoutManager.
+ * It does not depend on the Android framework, the same as the SpanPacker.
+ *
+ * Instead of the skyline, it keeps an occupancy grid, one bitmask of the spans for each row,
+ * so an item never has to be shrunk: a wide item which does not fit at the lowest row
+ * is placed on a higher row, and the hole below it is back-filled by the later items.
+ * Each item is placed at the lowest row where it fits, on the leftmost spans of the row.
+ *
+ * Only the rows from the floor, i.e., the first row which is not full, are kept.
+ * To keep the search cheap, the floor is at most window rows below the top,
+ * and the holes below it are given up, i.e., the rows are treated as full.
+ */
+public class DensePacker {
+
+    /* Default number of rows searched for holes, below the top of the grid. */
+    public static final int DEFAULT_WINDOW = 32;
+
+    private final int mSpanCount;
+    private final int mWindow;
+    /* The bitmask of a full row. */
+    private final long fullRow;
+    /* The occupied spans of row r are stored at index r & rowMask. */
+    private final long[] rows;
+    private final int rowMask;
+    /* The rows before it are full. */
+    private int floor;
+    /* One more than the last occupied row, i.e., the height of the grid in rows. */
+    private int top;
+
+    /* The placement of the last item. */
+    private int lastStartSpan;
+    private int lastWidthNum;
+
+    public DensePacker(int spanCount){
+        this(spanCount, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param spanCount The number of spans, from 2 to SpanPacker.MAX_SPAN_COUNT.
+     * @param window The number of rows below the top which are searched for holes.
+     */
+    public DensePacker(int spanCount, int window){
+        if(spanCount < 2 || spanCount > SpanPacker.MAX_SPAN_COUNT)
+            throw new IllegalArgumentException("Span count should be between 2 and "
+                    + SpanPacker.MAX_SPAN_COUNT + ". Provided " + spanCount);
+        if(window < 1)
+            throw new IllegalArgumentException("Window should be at least 1. Provided " + window);
+        mSpanCount = spanCount;
+        mWindow = window;
+        fullRow = spanCount == 64 ? -1L : (1L << spanCount) - 1;
+        // The rows from the floor to the bottom of the tallest item placed at the top.
+        final int capacity = Integer.highestOneBit(window + PlacementTable.MAX_VALUE) << 1;
+        rows = new long[capacity];
+        rowMask = capacity - 1;
+    }
+
+    public int getSpanCount(){
+        return mSpanCount;
+    }
+
+    public void reset(){
+        Arrays.fill(rows, 0);
+        floor = 0;
+        top = 0;
+    }
+
+    /**
+     * @return The first row which is not full. The next items are placed on or after it.
+     */
+    public int getFloor(){
+        return floor;
+    }
+
+    /**
+     * @return The height of the grid in rows.
+     */
+    public int getTop(){
+        return top;
+    }
+
+    /**
+     * @return The first span index occupied by the last placed item.
+     */
+    public int getLastStartSpan(){
+        return lastStartSpan;
+    }
+
+    /**
+     * @return The number of spans the last placed item takes,
+     * which is only smaller than the preferred one if it is wider than the grid.
+     */
+    public int getLastWidthNum(){
+        return lastWidthNum;
+    }
+
+    /**
+     * Place the next item at the lowest row where it fits.
+     * @param widthNum The preferred number of spans in the horizontal direction.
+     * @param heightNum The number of spans in the vertical direction,
+     *                  from 1 to PlacementTable.MAX_VALUE.
+     * @return The row of the top of the item.
+     */
+    public int place(int widthNum, int heightNum){
+        if(heightNum < 1 || heightNum > PlacementTable.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid heightNum " + heightNum);
+        final int fitWidth = Math.max(1, Math.min(widthNum, mSpanCount));
+        // It always fits at the top, so the loop ends.
+        for(int row = floor; ; row++){
+            final long fit = findFit(row, fitWidth, heightNum);
+            if(fit != 0){
+                final int startSpan = Long.numberOfTrailingZeros(fit);
+                occupy(row, startSpan, fitWidth, heightNum);
+                lastStartSpan = startSpan;
+                lastWidthNum = fitWidth;
+                return row;
+            }
+        }
+    }
+
+    /**
+     * Pack items like SpanPacker.pack(), the results are in rows.
+     * @param widthNums The preferred widthNum of each item.
+     * @param heightNums The heightNum of each item.
+     * @param from The first item to be packed, inclusive.
+     * @param to The last item to be packed, exclusive.
+     * @param outStartSpan Receives the first span index each item occupied.
+     * @param outWidthNum Receives the widthNum each item finally takes.
+     * @param outRow Receives the row of each item.
+     */
+    public void pack(int[] widthNums, int[] heightNums, int from, int to,
+                     int[] outStartSpan, int[] outWidthNum, int[] outRow){
+        for(int i = from; i < to; i++){
+            outRow[i] = place(widthNums[i], heightNums[i]);
+            outStartSpan[i] = lastStartSpan;
+            outWidthNum[i] = lastWidthNum;
+        }
+    }
+
+    /**
+     * @param row
+     * @param widthNum
+     * @param heightNum
+     * @return The bitmask of the spans where an item of the size can start at the row.
+     */
+    private long findFit(int row, int widthNum, int heightNum){
+        // The spans which are empty in all rows of the item.
+        long empty = fullRow;
+        final int end = Math.min(row + heightNum, top);
+        for(int r = row; r < end && empty != 0; r++){
+            empty &= ~rows[r & rowMask];
+        }
+        // The first spans of widthNum adjacent empty spans.
+        long fit = empty;
+        for(int k = 1; k < widthNum && fit != 0; k++){
+            fit &= empty >>> k;
+        }
+        return fit;
+    }
+
+    private void occupy(int row, int startSpan, int widthNum, int heightNum){
+        final long bits = (widthNum >= 64 ? -1L : (1L << widthNum) - 1) << startSpan;
+        for(int r = row; r < row + heightNum; r++){
+            rows[r & rowMask] |= bits;
+        }
+        top = Math.max(top, row + heightNum);
+        // Skip the full rows, and give up the holes which are too far below the top.
+        // The slots are cleared for the rows after the top.
+        while(floor < top && (rows[floor & rowMask] == fullRow || top - floor > mWindow)){
+            rows[floor & rowMask] = 0;
+            floor++;
+        }
+    }
+}
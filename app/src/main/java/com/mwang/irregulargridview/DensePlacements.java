@@ -0,0 +1,131 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+
+/**
+ * The placements of the items in the dense mode, from position 0, packed by a DensePacker.
+ * Besides the cell (see PlacementTable) and the row of each item, it stores two bounds,
+ * so the items in an area are found without scanning from the first item:
+ * the floor before each item, which never decreases and the later items are not above it,
+ * and the largest bottom of the items until each item, which never decreases either.
+ *
+ * The state of the packer cannot be restored for a position,
+ * so a change of an item drops all placements and they are packed again from position 0.
+ */
+public class DensePlacements {
+
+    private final DensePacker packer;
+    private int[] cells;
+    private int[] rows;
+    private int[] floors;
+    private int[] bottoms;
+    private int count;
+    /* The largest bottom of the placed items, in rows. */
+    private int maxBottom;
+
+    public DensePlacements(int spanCount){
+        packer = new DensePacker(spanCount);
+        cells = new int[64];
+        rows = new int[64];
+        floors = new int[64];
+        bottoms = new int[64];
+    }
+
+    /**
+     * @return The number of placed items, i.e., the next position to be placed.
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * Place the next position.
+     * @param widthNum
+     * @param heightNum
+     */
+    public void append(int widthNum, int heightNum){
+        if(count == cells.length){
+            final int length = cells.length * 2;
+            cells = Arrays.copyOf(cells, length);
+            rows = Arrays.copyOf(rows, length);
+            floors = Arrays.copyOf(floors, length);
+            bottoms = Arrays.copyOf(bottoms, length);
+        }
+        floors[count] = packer.getFloor();
+        final int row = packer.place(widthNum, heightNum);
+        cells[count] = PlacementTable.makeCell(packer.getLastWidthNum(), heightNum,
+                packer.getLastStartSpan());
+        rows[count] = row;
+        maxBottom = Math.max(maxBottom, row + heightNum);
+        bottoms[count] = maxBottom;
+        count++;
+    }
+
+    public int getCell(int position){
+        return cells[position];
+    }
+
+    /**
+     * @param position
+     * @return The row of the top of the item.
+     */
+    public int getRow(int position){
+        return rows[position];
+    }
+
+    /**
+     * @param position
+     * @return The floor before the position, the items from it are not above it.
+     */
+    public int getFloor(int position){
+        return floors[position];
+    }
+
+    /**
+     * @return The floor before the next position.
+     */
+    public int getNextFloor(){
+        return packer.getFloor();
+    }
+
+    /**
+     * @return The height of the placed items in rows.
+     */
+    public int getHeight(){
+        return packer.getTop();
+    }
+
+    /**
+     * Find the first item which may be below the row, all items before it are above the row.
+     * @param row
+     * @return The first position whose bottom, or the bottom of an item before it,
+     * is below the row, or getCount() if there are no such items.
+     */
+    public int findFirstBelow(int row){
+        int low = 0, high = count - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            if(bottoms[mid] <= row){
+                low = mid + 1;
+            }else{
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Remove the placements which depend on the position, i.e., all of them from it.
+     * @param position
+     */
+    public void removeFrom(int position){
+        if(position < count)
+            clear();
+    }
+
+    public void clear(){
+        packer.reset();
+        count = 0;
+        maxBottom = 0;
+    }
+}
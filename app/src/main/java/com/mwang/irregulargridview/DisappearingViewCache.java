@@ -0,0 +1,136 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+
+/**
+ * The layout params of the disappearing views, i.e., the measure specs and the bounds
+ * in the real layout, keyed by the position.
+ * It replaces a TreeMap of params objects: the params are stored in int arrays
+ * which are kept between the layouts, so putting hundreds of items does not create
+ * a node and a boxed key for each of them.
+ *
+ * The positions are sorted in ascending order, so the params are usually appended,
+ * and the descending order is read with the index from size() - 1 to 0.
+ */
+public class DisappearingViewCache {
+
+    private static final int WIDTH_SPEC = 0;
+    private static final int HEIGHT_SPEC = 1;
+    private static final int LEFT = 2;
+    private static final int TOP = 3;
+    private static final int RIGHT = 4;
+    private static final int BOTTOM = 5;
+    private static final int FIELD_COUNT = 6;
+
+    private int[] positions;
+    /* FIELD_COUNT values for each position. */
+    private int[] values;
+    private int size;
+
+    public DisappearingViewCache(){
+        positions = new int[16];
+        values = new int[16 * FIELD_COUNT];
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Put the params of the position, or replace them if it is already in the cache.
+     * @param position
+     * @param widthSpec
+     * @param heightSpec
+     * @param left
+     * @param top
+     * @param right
+     * @param bottom
+     */
+    public void put(int position, int widthSpec, int heightSpec,
+                    int left, int top, int right, int bottom){
+        int index = size == 0 || position > positions[size - 1] ? -(size + 1) : search(position);
+        if(index < 0){
+            index = -(index + 1);
+            if(size == positions.length){
+                positions = Arrays.copyOf(positions, size * 2);
+                values = Arrays.copyOf(values, size * 2 * FIELD_COUNT);
+            }
+            System.arraycopy(positions, index, positions, index + 1, size - index);
+            System.arraycopy(values, index * FIELD_COUNT, values, (index + 1) * FIELD_COUNT,
+                    (size - index) * FIELD_COUNT);
+            positions[index] = position;
+            size++;
+        }
+        final int offset = index * FIELD_COUNT;
+        values[offset + WIDTH_SPEC] = widthSpec;
+        values[offset + HEIGHT_SPEC] = heightSpec;
+        values[offset + LEFT] = left;
+        values[offset + TOP] = top;
+        values[offset + RIGHT] = right;
+        values[offset + BOTTOM] = bottom;
+    }
+
+    /**
+     * @param position
+     * @return The index of the position, or -1 if it is not in the cache.
+     */
+    public int indexOf(int position){
+        if(size == 0)
+            return -1;
+        return Math.max(-1, search(position));
+    }
+
+    public int getPosition(int index){
+        return positions[index];
+    }
+
+    public int getWidthSpec(int index){
+        return values[index * FIELD_COUNT + WIDTH_SPEC];
+    }
+
+    public int getHeightSpec(int index){
+        return values[index * FIELD_COUNT + HEIGHT_SPEC];
+    }
+
+    public int getLeft(int index){
+        return values[index * FIELD_COUNT + LEFT];
+    }
+
+    public int getTop(int index){
+        return values[index * FIELD_COUNT + TOP];
+    }
+
+    public int getRight(int index){
+        return values[index * FIELD_COUNT + RIGHT];
+    }
+
+    public int getBottom(int index){
+        return values[index * FIELD_COUNT + BOTTOM];
+    }
+
+    public void removeAt(int index){
+        System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+        System.arraycopy(values, (index + 1) * FIELD_COUNT, values, index * FIELD_COUNT,
+                (size - index - 1) * FIELD_COUNT);
+        size--;
+    }
+
+    /**
+     * Remove all params, the arrays are kept for the next pre-layout.
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    /**
+     * @param position
+     * @return The index of the position, or -(insertion point + 1) if it is not in the cache.
+     */
+    private int search(int position){
+        return Arrays.binarySearch(positions, 0, size, position);
+    }
+}
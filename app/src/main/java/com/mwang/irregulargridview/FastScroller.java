@@ -0,0 +1,138 @@
+package com.mwang.irregulargridview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.v7.widget.RecyclerView;
+import android.view.MotionEvent;
+
+/**
+ * A fast scroll thumb for the IrregularLayoutManager, drawn over the right edge.
+ * Dragging the thumb converts its position into a scroll offset, and the layout manager
+ * finds the item at the offset from the checkpoints, i.e., in O(log n),
+ * and only lays out the items around it instead of scrolling through all items before it.
+ */
+public class FastScroller extends RecyclerView.ItemDecoration
+        implements RecyclerView.OnItemTouchListener {
+
+    private final RecyclerView mRecyclerView;
+    private final IrregularLayoutManager mLayoutManager;
+    private final int mThumbWidth;
+    private final int mThumbHeight;
+    private final Paint thumbPaint;
+    /* The area of the thumb drawn last time. */
+    private final Rect thumbRect = new Rect();
+
+    private boolean isDragging;
+    /* The offset we scrolled to last time, to skip the same one. */
+    private int lastOffset = -1;
+
+    /**
+     * Create the thumb and attach it to the RecyclerView.
+     * @param recyclerView It should use the layoutManager.
+     * @param layoutManager
+     * @param thumbWidth in pixels.
+     * @param thumbHeight in pixels.
+     * @param thumbColor
+     */
+    public FastScroller(RecyclerView recyclerView, IrregularLayoutManager layoutManager,
+                        int thumbWidth, int thumbHeight, int thumbColor){
+        mRecyclerView = recyclerView;
+        mLayoutManager = layoutManager;
+        mThumbWidth = thumbWidth;
+        mThumbHeight = thumbHeight;
+        thumbPaint = new Paint();
+        thumbPaint.setColor(thumbColor);
+        recyclerView.addItemDecoration(this);
+        recyclerView.addOnItemTouchListener(this);
+    }
+
+    /**
+     * Remove the thumb from the RecyclerView.
+     */
+    public void detach(){
+        mRecyclerView.removeItemDecoration(this);
+        mRecyclerView.removeOnItemTouchListener(this);
+    }
+
+    @Override
+    public void onDrawOver(Canvas c, RecyclerView parent, RecyclerView.State state){
+        final int scrollRange = getScrollRange();
+        if(scrollRange <= 0){
+            thumbRect.setEmpty();
+            return;
+        }
+        final int offset = Math.min(scrollRange, mRecyclerView.computeVerticalScrollOffset());
+        final int thumbTop = mRecyclerView.getPaddingTop()
+                + (int) ((long) offset * getTrackRange() / scrollRange);
+        final int right = mRecyclerView.getWidth() - mRecyclerView.getPaddingRight();
+        thumbRect.set(right - mThumbWidth, thumbTop, right, thumbTop + mThumbHeight);
+        c.drawRect(thumbRect, thumbPaint);
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(RecyclerView rv, MotionEvent e){
+        if(e.getActionMasked() == MotionEvent.ACTION_DOWN && isOnThumb(e.getX(), e.getY())){
+            isDragging = true;
+            lastOffset = -1;
+            mRecyclerView.stopScroll();
+            return true;
+        }
+        return isDragging;
+    }
+
+    @Override
+    public void onTouchEvent(RecyclerView rv, MotionEvent e){
+        if(!isDragging)
+            return;
+        switch(e.getActionMasked()){
+            case MotionEvent.ACTION_MOVE:
+                scrollToThumb(e.getY());
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                isDragging = false;
+                break;
+        }
+    }
+
+    @Override
+    public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept){
+    }
+
+    /**
+     * Scroll to the offset where the center of the thumb is at y.
+     * @param y
+     */
+    private void scrollToThumb(float y){
+        final int trackRange = getTrackRange();
+        final int scrollRange = getScrollRange();
+        if(trackRange <= 0 || scrollRange <= 0)
+            return;
+        float fraction = (y - mRecyclerView.getPaddingTop() - mThumbHeight / 2f) / trackRange;
+        fraction = Math.max(0f, Math.min(1f, fraction));
+        final int offset = (int) (fraction * scrollRange);
+        if(offset == lastOffset)
+            return;
+        lastOffset = offset;
+        mLayoutManager.scrollToOffset(offset);
+    }
+
+    private boolean isOnThumb(float x, float y){
+        // The thumb is narrow, so the touch area is twice as wide.
+        return !thumbRect.isEmpty() && x >= thumbRect.left - mThumbWidth
+                && y >= thumbRect.top && y <= thumbRect.bottom;
+    }
+
+    /* The distance the content can be scrolled. */
+    private int getScrollRange(){
+        return mRecyclerView.computeVerticalScrollRange()
+                - mRecyclerView.computeVerticalScrollExtent();
+    }
+
+    /* The distance the thumb can be moved. */
+    private int getTrackRange(){
+        return mRecyclerView.getHeight() - mRecyclerView.getPaddingTop()
+                - mRecyclerView.getPaddingBottom() - mThumbHeight;
+    }
+}
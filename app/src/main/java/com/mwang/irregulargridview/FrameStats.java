@@ -0,0 +1,110 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+
+/**
+ * The frame durations of one scroll session, recorded by the JankMonitor.
+ * It does not depend on the Android framework, so it runs on the JVM.
+ *
+ * A frame which takes more than one frame interval is janky, and the number of
+ * dropped frames is the number of intervals it takes, rounded, minus one.
+ */
+public class FrameStats {
+
+    private final long frameIntervalNanos;
+    private long[] durations;
+    private int count;
+    /* Whether durations is sorted, it is sorted when a percentile is read. */
+    private boolean isSorted = true;
+    private int jankyFrames;
+    private int droppedFrames;
+    private long worstFrameNanos;
+    private long totalNanos;
+
+    /**
+     * @param frameIntervalNanos The duration of one frame of the display, e.g., 16.7ms for 60Hz.
+     */
+    public FrameStats(long frameIntervalNanos){
+        if(frameIntervalNanos <= 0)
+            throw new IllegalArgumentException("Frame interval should be positive. Provided "
+                    + frameIntervalNanos);
+        this.frameIntervalNanos = frameIntervalNanos;
+        durations = new long[256];
+    }
+
+    public long getFrameIntervalNanos(){
+        return frameIntervalNanos;
+    }
+
+    /**
+     * Record a frame.
+     * @param durationNanos The time from the previous frame.
+     */
+    public void addFrame(long durationNanos){
+        if(count == durations.length)
+            durations = Arrays.copyOf(durations, count * 2);
+        durations[count++] = durationNanos;
+        isSorted = false;
+        totalNanos += durationNanos;
+        worstFrameNanos = Math.max(worstFrameNanos, durationNanos);
+        if(durationNanos > frameIntervalNanos){
+            jankyFrames++;
+            droppedFrames += Math.max(0,
+                    (durationNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1);
+        }
+    }
+
+    public int getFrameCount(){
+        return count;
+    }
+
+    /**
+     * @return The number of frames which take more than one frame interval.
+     */
+    public int getJankyFrameCount(){
+        return jankyFrames;
+    }
+
+    public int getDroppedFrameCount(){
+        return droppedFrames;
+    }
+
+    public long getWorstFrameNanos(){
+        return worstFrameNanos;
+    }
+
+    /**
+     * @return The duration of the session, i.e., the sum of the frame durations.
+     */
+    public long getTotalNanos(){
+        return totalNanos;
+    }
+
+    /**
+     * Get the percentile of the frame durations with the nearest-rank method.
+     * @param percent From 0 to 100, e.g., 50 for the median or 99.
+     * @return The duration, or 0 if there are no frames.
+     */
+    public long getPercentileNanos(double percent){
+        if(count == 0)
+            return 0;
+        if(!isSorted){
+            Arrays.sort(durations, 0, count);
+            isSorted = true;
+        }
+        final int rank = (int) Math.ceil(percent / 100 * count);
+        return durations[Math.min(count, Math.max(1, rank)) - 1];
+    }
+
+    /**
+     * Remove all frames, the array is kept for the next session.
+     */
+    public void reset(){
+        count = 0;
+        isSorted = true;
+        jankyFrames = 0;
+        droppedFrames = 0;
+        worstFrameNanos = 0;
+        totalNanos = 0;
+    }
+}
@@ -1,47 +1,56 @@
 package com.mwang.irregulargridview;
 
 import android.content.Context;
+import android.graphics.PointF;
 import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.widget.LinearSmoothScroller;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.SparseIntArray;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.TreeMap;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
- * An IrregularLayoutManager which composed of items with 4 kinds of sizes.
- * 1x1, 1x2, 2x1 and 2x2.
+ * An IrregularLayoutManager which composed of items with any sizes in spans,
+ * e.g., 1x1, 1x2, 2x1, 2x2, 3x3 or 4x1.
+ * An item which is wider than the empty spans at the bottom is shrunk to fit them.
  */
 public class IrregularLayoutManager extends RecyclerView.LayoutManager {
 
     /* Default spanCount. */
     private static final int DEFAULT_SPAN_COUNT = 4;
+    /* The names of the trace sections. */
+    private static final String TRACE_LAYOUT = "IrregularLM OnLayout";
+    private static final String TRACE_PRE_LAYOUT = "IrregularLM PreLayout";
+    private static final String TRACE_SCROLL = "IrregularLM Scroll";
+    private static final String TRACE_LAYOUT_CHUNK = "IrregularLM LayoutChunk";
+    private static final String TRACE_RECYCLE = "IrregularLM Recycle";
     /* Current spanCount. */
     private int mSpanCount = DEFAULT_SPAN_COUNT;
 
-    /* Store the bottom of each span. */
-    private int[] spanBottom;
-    /* The minimum  of the spanBottom. */
-    private int spanBottomMin;
-    /* The maximum of the spanBottom. */
-    private int spanBottomMax;
-    /* The top of each span. */
-    private int[] spanTop;
-    /* The minimum of the spanTop. */
-    private int spanTopMin;
-    /* The maximum of the spanTop. */
-    private int spanTopMax;
-
-    /* Store the first span index where the first and the second span are both empty. */
-    private int firstTwoEmptyBottomSpanIndex;
-    /* The index of the first empty span. */
-    private int firstOneEmptyBottomSpanIndex;
+    /* The maximum number of placements before the last attached item in the saved state. */
+    private static final int MAX_SAVED_PLACEMENTS = 1024;
+    /* The maximum number of span counts whose placements are kept. */
+    private static final int MAX_CACHED_SPAN_COUNTS = 3;
+    /* The maximum number of items bound in one layout to place the items before a position. */
+    private static final int MAX_PREFIX_BINDS = SkylineCheckpoints.DEFAULT_INTERVAL;
+
+    /**
+     * Store the bottom of each span, including its minimum, its maximum
+     * and the first empty spans. All placement decisions are made by the packer.
+     */
+    private SpanPacker spanBottom;
+    /* Store the top of each span, including its minimum and maximum. */
+    private SpanPacker spanTop;
 
     /* The top border of the area to be filled. */
     private int topBorder;
@@ -62,20 +71,81 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
     private int lastAttachedItemPosition;
 
     /**
-     * Store the layout widthNum and heightNum for each item.
+     * Store the layout widthNum, heightNum and the first span index occupied for each item.
      * The layout width is about widthNum * sizePerSpan.
      * The layout height is heightNum * sizePerSpan.
      */
-    private SparseIntArray itemLayoutWidthCache;
-    private SparseIntArray itemLayoutHeightCache;
-    /* The first span index the item occupied. */
-    private SparseIntArray itemOccupiedStartSpan;
+    private PlacementTable itemPlacements;
+
+    /* The skyline every SkylineCheckpoints.DEFAULT_INTERVAL items, used to jump to a position. */
+    private SkylineCheckpoints checkpoints;
+    /* Used to calculate the placements which are not cached, e.g., after the state is restored. */
+    private SpanPacker prefixSpans;
+    /* The optional sizes of the items, so they can be placed without binding. */
+    private SpanSizeLookup mSpanSizeLookup;
+    /* The optional disk cache of itemPlacements and checkpoints. */
+    private PlacementDiskCache placementCache;
+    /* Whether the placementCache has been loaded, it is only loaded once. */
+    private boolean isPlacementCacheLoaded;
+    /* The executor to compute all placements in the background, or null. */
+    private Executor precomputeExecutor;
+    /* The running or finished background computation, or null. */
+    private PlacementPrecomputer precomputer;
+    /* The cells of the precomputer, wrapped once so applying a chunk does not allocate. */
+    private IntBuffer precomputedCells;
+    /* Whether the items are laid out in the dense mode, see setDenseEnabled(). */
+    private boolean isDenseEnabled;
+    /* Whether a child laid out again with the same size reuses its measurement. */
+    private boolean isItemMeasureCacheEnabled;
+    /* Changed with each layout, the decorations cached before it are calculated again. */
+    private int decorationGeneration;
+    /* Whether the hot paths are wrapped in trace sections. */
+    private boolean isTraceEnabled;
+    private OnLayoutMetricsListener metricsListener;
+    /* The counters of the current pass, or null if there is no listener. */
+    private LayoutMetrics metrics;
+    /* The placements in the dense mode, with the row of each item. */
+    private DensePlacements densePlacements;
+    /**
+     * The placements for each span count, in the order they are used,
+     * including the ones for the current span count, i.e., itemPlacements and checkpoints.
+     */
+    private final LinkedHashMap<Integer, SpanCountPlacements> spanCountPlacements =
+            new LinkedHashMap<Integer, SpanCountPlacements>(MAX_CACHED_SPAN_COUNTS + 1, 0.75f, true){
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, SpanCountPlacements> eldest){
+                    return size() > MAX_CACHED_SPAN_COUNTS;
+                }
+            };
 
     /* The scroll offset. */
     private int scrollOffset;
 
+    /* The position to be laid out at the top with the next layout, set by scrollToPosition(). */
+    private int mPendingScrollPosition = RecyclerView.NO_POSITION;
+    /* The distance from the top of mPendingScrollPosition to the top border. */
+    private int mPendingScrollOffset;
+    /* Requests the next layout of a jump which binds the items before it in several layouts. */
+    private final Runnable continueJump = new Runnable() {
+        @Override
+        public void run() {
+            requestLayout();
+        }
+    };
+    /* The number of items to prefetch when the RecyclerView is nested, e.g., in a list. */
+    private int mInitialPrefetchItemCount = 2;
+    /* The state to be restored with the first layout, set by onRestoreInstanceState(). */
+    private SavedState mPendingSavedState;
+
     /* The first item which is removed with notifyItemRemoved(). */
     private int firstChangedPosition;
+    /**
+     * The first item which is added, moved or updated, or -1.
+     * The placements from it are invalid with the next layout.
+     */
+    private int firstUpdatedPosition = -1;
+    /* The position of the first attached item after the items are added or moved. */
+    private int updatedAnchorPosition = RecyclerView.NO_POSITION;
     /* The number of removed items except for the items out of the bottom border. */
     private int removedTopAndBoundPositionCount;
     /**
@@ -84,8 +154,8 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
      */
     private boolean isBeforePreLayout;
 
-    /* A disappearing view cache with descending order. */
-    private TreeMap<Integer, DisappearingViewParams> disappearingViewCache;
+    /* A disappearing view cache, read in descending order. */
+    private final DisappearingViewCache disappearingViewCache = new DisappearingViewCache();
 
     /* Determine whether onLayoutChildren() is triggered with notifyDataSetChanged(). */
     private boolean isNotifyDataSetChanged;
@@ -94,20 +164,12 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
     final Rect mDecorInsets = new Rect();
 
     /**
-     * The following params is calculated during the pre-layout phase
+     * The following state is calculated during the pre-layout phase
      * and is used for the real layout.
      */
-    private int fakeSpanBottomMin;
-    private int fakeSpanBottomMax;
-    private int fakeCurrentPosition;
-    private int fakeFirstAttachedItemPosition;
-    private int[] fakeSpanTop;
-    private int[] fakeSpanBottom;
-    private int fakeFirstTwoEmptyBottomSpanIndex;
-    private int fakeFirstOneEmptyBottomSpanIndex;
-    private SparseIntArray fakeItemLayoutWidthCache;
-    private SparseIntArray fakeItemLayoutHeightCache;
-    private SparseIntArray fakeItemOccupiedStartSpan;
+    private final LayoutState predictedState = new LayoutState();
+    /* The state before the pre-layout, restored after it. */
+    private final LayoutState realStateBackup = new LayoutState();
 
     /**
      * Default number of the spans is DEFAULT_SPAN_COUNT.
@@ -128,16 +190,33 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
     }
 
     /**
-     * set the number of span, it should be at least 2.
+     * set the number of span, it should be at least 2 and at most SpanPacker.MAX_SPAN_COUNT.
+     * The first attached item is kept at the top with the next layout, e.g., after pinch-zoom.
+     * The placements of the last MAX_CACHED_SPAN_COUNTS span counts are kept,
+     * so switching between them does not pack the items from the first one again.
      * @param spanCount The number of spans.
      */
-    private void setSpanCount(int spanCount){
+    public void setSpanCount(int spanCount){
         if(spanCount == mSpanCount)
                 return;
         if(spanCount < 2)
                 throw new IllegalArgumentException("Span count should be at least 2. Provided "
                                                         + spanCount);
+        if(spanCount > SpanPacker.MAX_SPAN_COUNT)
+                throw new IllegalArgumentException("Span count should be at most "
+                                                        + SpanPacker.MAX_SPAN_COUNT + ". Provided "
+                                                        + spanCount);
+        if(getChildCount() != 0 && mPendingScrollPosition == RecyclerView.NO_POSITION){
+            mPendingScrollPosition = firstAttachedItemPosition;
+            mPendingScrollOffset = 0;
+        }
         mSpanCount = spanCount;
+        cancelPrecompute();
+        requestLayout();
+    }
+
+    public int getSpanCount(){
+        return mSpanCount;
     }
 
     /**
@@ -148,18 +227,175 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         return sizePerSpan;
     }
 
+    /**
+     * Set the sizes of the items, so the placements can be calculated without binding,
+     * e.g., when jumping to a position. If it is null, the sizes are read from the LayoutParams
+     * after the items are bound. Then a jump binds each item before it which is not placed yet,
+     * at most MAX_PREFIX_BINDS in one layout, so a far jump is finished in several frames
+     * and it is O(n) instead of O(log n). The placements are kept, so it is only the first time.
+     * @param spanSizeLookup
+     */
+    public void setSpanSizeLookup(SpanSizeLookup spanSizeLookup){
+        mSpanSizeLookup = spanSizeLookup;
+    }
+
+    public SpanSizeLookup getSpanSizeLookup(){
+        return mSpanSizeLookup;
+    }
+
+    /**
+     * Read the widthNum of the position from the SpanSizeLookup, with the same rule as the
+     * PlacementPrecomputer. It is at most the span count.
+     * @param position
+     * @return
+     */
+    private int getLookupWidthNum(int position){
+        final int widthNum = mSpanSizeLookup.getWidthNum(position);
+        if(!PlacementTable.isValidSize(widthNum, 1))
+            throw new IllegalArgumentException("Invalid widthNum " + widthNum
+                    + " from the SpanSizeLookup at position " + position);
+        return Math.min(widthNum, mSpanCount);
+    }
+
+    /**
+     * Read the heightNum of the position from the SpanSizeLookup, with the same rule as the
+     * PlacementPrecomputer.
+     * @param position
+     * @return
+     */
+    private int getLookupHeightNum(int position){
+        final int heightNum = mSpanSizeLookup.getHeightNum(position);
+        if(!PlacementTable.isValidSize(1, heightNum))
+            throw new IllegalArgumentException("Invalid heightNum " + heightNum
+                    + " from the SpanSizeLookup at position " + position
+                    + ", it should be from 1 to " + PlacementTable.MAX_VALUE);
+        return heightNum;
+    }
+
+    /**
+     * In the dense mode, an item which is wider than the empty spans at the bottom
+     * is not shrunk, but placed on a higher row, and the holes below it are back-filled
+     * by the later items which fit. So the items may not be in the order of the positions.
+     * The placements are calculated from the first item, with the SpanSizeLookup
+     * or by binding the items. There are no predictive animations in the dense mode,
+     * and the disk cache and the background computation are not used.
+     * @param isDenseEnabled
+     */
+    public void setDenseEnabled(boolean isDenseEnabled){
+        if(this.isDenseEnabled == isDenseEnabled)
+            return;
+        this.isDenseEnabled = isDenseEnabled;
+        // Lay out from the top again.
+        removeAllViews();
+        requestLayout();
+    }
+
+    public boolean isDenseEnabled(){
+        return isDenseEnabled;
+    }
+
+    /**
+     * Reuse the decorations and the measurement of a child which is laid out again,
+     * or rebound for another item, with the same view type, widthNum, heightNum
+     * and sizePerSpan, instead of calculating the decorations and measuring it,
+     * even if it requested a layout when it was added again.
+     * It is measured if one of its children requested a layout, e.g., a child is shown.
+     * Enable it only if the decorations do not depend on the position of the item,
+     * and the items of the same view type and size are laid out the same
+     * however they are bound. The decorations are calculated again with each layout,
+     * e.g., after an ItemDecoration is added.
+     * @param isItemMeasureCacheEnabled
+     */
+    public void setItemMeasureCacheEnabled(boolean isItemMeasureCacheEnabled){
+        this.isItemMeasureCacheEnabled = isItemMeasureCacheEnabled;
+    }
+
+    public boolean isItemMeasureCacheEnabled(){
+        return isItemMeasureCacheEnabled;
+    }
+
+    /**
+     * Wrap the layout, the scroll, layoutChunk() and the recycling in trace sections,
+     * which are shown by systrace. It is disabled by default.
+     * @param enabled
+     */
+    public void setTraceEnabled(boolean enabled){
+        isTraceEnabled = enabled;
+    }
+
+    public boolean isTraceEnabled(){
+        return isTraceEnabled;
+    }
+
+    /**
+     * Count the items placed, the placement cache hits and misses, the recycled views
+     * and the time of each pass, and report them to the listener after the pass.
+     * Nothing is counted without a listener.
+     * @param listener The listener, or null to stop counting.
+     */
+    public void setOnLayoutMetricsListener(OnLayoutMetricsListener listener){
+        metricsListener = listener;
+        metrics = listener == null ? null : new LayoutMetrics();
+    }
+
+    /**
+     * Compute the placements of all items in the background with the executor,
+     * so the layout does not need to pack items while scrolling.
+     * It needs a SpanSizeLookup, which should be safe to call from the executor.
+     * The layout reads the finished chunks and packs the unfinished items by itself.
+     * The computation starts again when the data set is changed.
+     * @param executor The executor, or null to disable the background computation.
+     */
+    public void setPrecomputeExecutor(Executor executor){
+        precomputeExecutor = executor;
+        cancelPrecompute();
+    }
+
+    /**
+     * @return The number of items whose placements are computed in the background.
+     */
+    public int getPrecomputedItemCount(){
+        return precomputer == null ? 0 : precomputer.getCompletedCount();
+    }
+
+    /**
+     * Set the disk cache of the placements, which is loaded with the next first layout,
+     * or the next layout after notifyDataSetChanged().
+     * Set a new one with another data set version before notifyDataSetChanged()
+     * if the sizes of the items are changed.
+     * @param cache The cache, or null to disable it.
+     */
+    public void setPlacementCache(PlacementDiskCache cache){
+        placementCache = cache;
+        isPlacementCacheLoaded = false;
+    }
+
+    /**
+     * Write the placements computed so far into the disk cache, e.g., in onStop().
+     * Nothing happens if there is no cache or nothing is laid out.
+     * @throws IOException
+     */
+    public void savePlacementCache() throws IOException {
+        if(placementCache != null && itemPlacements != null){
+            placementCache.save(mSpanCount, itemPlacements, checkpoints);
+        }
+    }
+
     /**
      * If you want to customize the animation, it should return true.
      * @return
      */
     @Override
     public boolean supportsPredictiveItemAnimations() {
-        return true;
+        return !isDenseEnabled;
     }
 
     @Override
     public void onAdapterChanged(RecyclerView.Adapter oldAdapter, RecyclerView.Adapter newAdapter) {
         removeAllViews();
+        spanCountPlacements.clear();
+        // The cells are computed with the old lookup and item count.
+        cancelPrecompute();
     }
 
     /**
@@ -170,6 +406,9 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
     @Override
     public void onItemsChanged(RecyclerView recyclerView){
         isNotifyDataSetChanged = true;
+        cancelPrecompute();
+        removeDensePlacements(0);
+        spanCountPlacements.clear();
     }
 
     /**
@@ -184,6 +423,10 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
      */
     @Override
     public void onItemsRemoved(RecyclerView recyclerView, int positionStart, int itemCount) {
+        cancelPrecompute();
+        removeOtherSpanCountPlacements(positionStart);
+        if(removeDensePlacements(positionStart))
+            return;
         if(isBeforePreLayout){
             if(firstChangedPosition > positionStart || firstChangedPosition == -1)
                 firstChangedPosition = positionStart;
@@ -192,6 +435,142 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         }
     }
 
+    /**
+     * Triggered with notifyItemInserted().
+     * The inserted items above the first attached item do not move the visible items.
+     * @param recyclerView
+     * @param positionStart The position of the first inserted item.
+     * @param itemCount The number of inserted items.
+     */
+    @Override
+    public void onItemsAdded(RecyclerView recyclerView, int positionStart, int itemCount) {
+        if(!markItemsUpdated(positionStart))
+            return;
+        if(positionStart <= updatedAnchorPosition)
+            updatedAnchorPosition += itemCount;
+    }
+
+    /**
+     * Triggered with notifyItemMoved().
+     * @param recyclerView
+     * @param from The position of the item before it is moved.
+     * @param to The position of the item after it is moved.
+     * @param itemCount The number of moved items, it is always 1.
+     */
+    @Override
+    public void onItemsMoved(RecyclerView recyclerView, int from, int to, int itemCount) {
+        if(!markItemsUpdated(Math.min(from, to)))
+            return;
+        if(updatedAnchorPosition == from){
+            updatedAnchorPosition = to;
+        }else if(from < updatedAnchorPosition && to >= updatedAnchorPosition){
+            updatedAnchorPosition--;
+        }else if(from > updatedAnchorPosition && to <= updatedAnchorPosition){
+            updatedAnchorPosition++;
+        }
+    }
+
+    /**
+     * Triggered with notifyItemChanged().
+     * Only the items whose sizes are changed invalidate the placements. The changes of the
+     * content, e.g., a selection or a payload, keep them and the background computation.
+     * @param recyclerView
+     * @param positionStart The position of the first updated item.
+     * @param itemCount The number of updated items.
+     */
+    @Override
+    public void onItemsUpdated(RecyclerView recyclerView, int positionStart, int itemCount) {
+        if(isPlacementChanged(positionStart, positionStart + itemCount))
+            markItemsUpdated(positionStart);
+    }
+
+    /**
+     * Check whether the SpanSizeLookup gives an updated item another size than its placements,
+     * i.e., the cached ones of each span count and the precomputed ones.
+     * Without the SpanSizeLookup the sizes are only known after binding, so they may be changed.
+     * A placed widthNum which is shrunk to fit the empty spans is also regarded as changed.
+     * @param from The first updated position.
+     * @param to The position after the last updated one.
+     * @return
+     */
+    private boolean isPlacementChanged(int from, int to){
+        if(mSpanSizeLookup == null)
+            return true;
+        final int precomputedCount = precomputer == null ? 0 : precomputer.getCompletedCount();
+        for(int i = from; i < to; i++){
+            final int widthNum = getLookupWidthNum(i);
+            final int heightNum = getLookupHeightNum(i);
+            if(i < precomputedCount
+                    && !isPlacementOf(precomputer.getCells()[i], widthNum, heightNum, mSpanCount))
+                return true;
+            for(Map.Entry<Integer, SpanCountPlacements> entry : spanCountPlacements.entrySet()){
+                final int spanCount = entry.getKey();
+                final SpanCountPlacements cached = entry.getValue();
+                if(!isPlacementOf(cached.placements.get(i), widthNum, heightNum, spanCount))
+                    return true;
+                if(i < cached.densePlacements.getCount() && !isPlacementOf(
+                        cached.densePlacements.getCell(i), widthNum, heightNum, spanCount))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param cell
+     * @param widthNum
+     * @param heightNum
+     * @param spanCount
+     * @return true if the cell is empty or it places an item of the size.
+     */
+    private static boolean isPlacementOf(int cell, int widthNum, int heightNum, int spanCount){
+        return cell == 0 || (PlacementTable.getWidthNum(cell) == Math.min(widthNum, spanCount)
+                && PlacementTable.getHeightNum(cell) == heightNum);
+    }
+
+    /**
+     * Update firstUpdatedPosition, and start tracking the first attached item.
+     * @param position The first added, moved or updated position.
+     * @return false if nothing is laid out.
+     */
+    private boolean markItemsUpdated(int position){
+        cancelPrecompute();
+        removeOtherSpanCountPlacements(position);
+        if(removeDensePlacements(position))
+            return false;
+        if(getChildCount() == 0 || itemPlacements == null)
+            return false;
+        if(firstUpdatedPosition == -1 || position < firstUpdatedPosition)
+            firstUpdatedPosition = position;
+        if(updatedAnchorPosition == RecyclerView.NO_POSITION)
+            updatedAnchorPosition = firstAttachedItemPosition;
+        return true;
+    }
+
+    /**
+     * Remove the placements of the other span counts from the position,
+     * since the items are changed. The ones of the current span count are updated
+     * with the next layout.
+     * @param position
+     */
+    private void removeOtherSpanCountPlacements(int position){
+        for(Map.Entry<Integer, SpanCountPlacements> entry : spanCountPlacements.entrySet()){
+            if(entry.getKey() != mSpanCount)
+                entry.getValue().removeFrom(position);
+        }
+    }
+
+    /**
+     * Remove the dense placements from the position, since the items are changed.
+     * @param position
+     * @return true if it is in the dense mode, so the other placements need not be updated.
+     */
+    private boolean removeDensePlacements(int position){
+        if(densePlacements != null)
+            densePlacements.removeFrom(position);
+        return isDenseEnabled;
+    }
+
     /**
      * Called when it is initial layout, or the data set is changed.
      * If supportsPredictiveItemAnimations() returns true, it will be called twice,
@@ -201,12 +580,54 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
      */
     @Override
     public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        decorationGeneration++;
+        // The listener and the tracing may be changed during the pass, so read them once.
+        final LayoutMetrics passMetrics = metrics;
+        final OnLayoutMetricsListener listener = metricsListener;
+        final boolean isTraced = isTraceEnabled;
+        if(passMetrics == null && !isTraced){
+            layoutChildren(recycler, state);
+            return;
+        }
+        beginPass(passMetrics, isTraced,
+                state.isPreLayout() ? LayoutMetrics.PASS_PRE_LAYOUT : LayoutMetrics.PASS_LAYOUT,
+                state.isPreLayout() ? TRACE_PRE_LAYOUT : TRACE_LAYOUT);
+        try{
+            layoutChildren(recycler, state);
+        }finally{
+            endPass(passMetrics, listener, isTraced);
+        }
+    }
+
+    private void layoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
 
         // Nothing to be laid out, just clear attached views and return.
         if(state.getItemCount() == 0){
             detachAndScrapAttachedViews(recycler);
             return;
         }
+        // The span count or the width is changed, lay out from the first attached item again
+        // with the placements of the span count.
+        if(!state.isPreLayout() && getChildCount() != 0 && isSpanLayoutChanged()){
+            // The placements from the changed items are invalid.
+            if(firstChangedPosition != -1)
+                itemPlacements.removeFrom(firstChangedPosition);
+            if(firstUpdatedPosition != -1)
+                itemPlacements.removeFrom(firstUpdatedPosition);
+            checkpoints.removeAfter(itemPlacements.getLimit());
+            if(mPendingScrollPosition == RecyclerView.NO_POSITION){
+                mPendingScrollPosition = Math.min(firstAttachedItemPosition,
+                        state.getItemCount() - 1);
+                mPendingScrollOffset = 0;
+            }
+            detachAndScrapAttachedViews(recycler);
+        }
+        // The dense mode has its own layout, without the pre-layout.
+        if(isDenseEnabled){
+            if(!state.isPreLayout())
+                layoutDense(recycler, state);
+            return;
+        }
         // For the pre-layout, we need to layout current attached views and appearing views.
         if(state.isPreLayout()){
             // If nothing is attached, just return.
@@ -229,7 +650,10 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             // If removedTopAndBoundPositionCount = 0, items changes out of the bottom border,
             // So we have nothing to do during the pre-layout.
             // Otherwise we need to lay out current attached views and appearing views.
-            if(removedTopAndBoundPositionCount != 0){
+            // If the span count or the width is changed in the same pass, the spans and
+            // spanWidthBorders are still the old ones, and the real layout lays out from the
+            // first attached item again, so nothing is predicted.
+            if(removedTopAndBoundPositionCount != 0 && !isSpanLayoutChanged()){
                 layoutAttachedAndAppearingViews(recycler, state);
             }
             // Reset isBeforePreLayout after the pre-layout ends.
@@ -241,7 +665,14 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         // First or empty layout, initialize layout parameters and fill.
         if(getChildCount() == 0){
             initializeLayoutParameters();
-            fillGrid(recycler, state, true);
+            startPrecompute(state);
+            if(mPendingScrollPosition != RecyclerView.NO_POSITION){
+                layoutFromPosition(mPendingScrollPosition, mPendingScrollOffset, recycler, state);
+            }else if(mPendingSavedState != null){
+                layoutFromSavedState(mPendingSavedState, recycler, state);
+            }else{
+                fillGrid(recycler, state, true);
+            }
             return;
         }
         // If it is triggered with notifyDataSetChanged(),
@@ -249,20 +680,50 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         if(isNotifyDataSetChanged){
             detachAndScrapAttachedViews(recycler);
             initializeLayoutParameters();
-            fillGrid(recycler, state, true);
+            startPrecompute(state);
             isNotifyDataSetChanged = false;
+            if(mPendingScrollPosition != RecyclerView.NO_POSITION){
+                layoutFromPosition(mPendingScrollPosition, mPendingScrollOffset, recycler, state);
+            }else{
+                fillGrid(recycler, state, true);
+            }
             return;
         }
 
         // Adapter data set changes.
         if(firstChangedPosition == -1){ // No item is removed
+            // Items are added, moved or updated, the placements from the first one are invalid.
+            final int updatedPosition = firstUpdatedPosition;
+            final int anchorPosition = updatedAnchorPosition;
+            if(updatedPosition != -1){
+                invalidatePlacements(updatedPosition);
+            }
+            // Use the precomputed placements after the invalid ones are removed,
+            // otherwise they are hidden again.
+            startPrecompute(state);
+            // Jump to the position set by scrollToPosition().
+            if(mPendingScrollPosition != RecyclerView.NO_POSITION){
+                detachAndScrapAttachedViews(recycler);
+                layoutFromPosition(mPendingScrollPosition, mPendingScrollOffset, recycler, state);
+                isBeforePreLayout = true;
+                return;
+            }
+            // The items before the first attached item are changed.
+            // Calculate the spans before it again, and keep it at the same place.
+            if(updatedPosition != -1 && (updatedPosition < firstAttachedItemPosition
+                    || anchorPosition != firstAttachedItemPosition)){
+                final int offset = getPaddingTop() - spanTop.getMin();
+                detachAndScrapAttachedViews(recycler);
+                layoutFromPosition(anchorPosition, offset, recycler, state);
+                isBeforePreLayout = true;
+                return;
+            }
             // reset parameters.
             mCurrentPosition = firstAttachedItemPosition;
             lastAttachedItemPosition = firstAttachedItemPosition;
             topBorder = getPaddingTop();
             bottomBorder = getHeight() - getPaddingBottom();
-            spanBottom = Arrays.copyOf(spanTop, mSpanCount);
-            updateSpanBottomParameters();
+            spanBottom.copyFrom(spanTop);
             // Fill the area.
             detachAndScrapAttachedViews(recycler);
             fillGrid(recycler, state, true);
@@ -275,36 +736,32 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         }
         // There are removed items.
         // Clear the cache from the firstChangedPosition
-        for(int i = firstChangedPosition; i < state.getItemCount(); i++){
-            if(itemLayoutWidthCache.get(i, 0) != 0){
-                itemLayoutWidthCache.delete(i);
-                itemLayoutHeightCache.delete(i);
-                itemOccupiedStartSpan.delete(i);
-            }
-            if(fakeItemLayoutWidthCache.get(i, 0) != 0){
-                itemLayoutWidthCache.put(i, fakeItemLayoutWidthCache.get(i));
-                itemLayoutHeightCache.put(i, fakeItemLayoutHeightCache.get(i));
-                itemOccupiedStartSpan.put(i, fakeItemOccupiedStartSpan.get(i));
-            }
+        // and copy the params calculated during the pre-layout.
+        predictedState.mergePlacementsInto(itemPlacements, firstChangedPosition,
+                state.getItemCount());
+        checkpoints.removeAfter(firstChangedPosition);
+        // There may be added, moved or updated items as well.
+        if(firstUpdatedPosition != -1){
+            invalidatePlacements(firstUpdatedPosition);
         }
-        fakeItemLayoutWidthCache.clear();
-        fakeItemLayoutHeightCache.clear();
-        fakeItemOccupiedStartSpan.clear();
+        startPrecompute(state);
 
         detachAndScrapAttachedViews(recycler);
 
-        // There are removed items out of the upper bound.
-        if(firstChangedPosition < firstAttachedItemPosition) {
+        // Jump to the position set by scrollToPosition(), there is no animation in this case.
+        if(mPendingScrollPosition != RecyclerView.NO_POSITION){
+            layoutFromPosition(mPendingScrollPosition, mPendingScrollOffset, recycler, state);
+        }else if(firstChangedPosition < firstAttachedItemPosition) {
+            // There are removed items out of the upper bound.
             mCurrentPosition = firstAttachedItemPosition;
             lastAttachedItemPosition = firstAttachedItemPosition;
             topBorder = getPaddingTop();
             bottomBorder = getHeight() - getPaddingBottom();
-            spanBottom = Arrays.copyOf(spanTop, mSpanCount);
-            updateSpanBottomParameters();
+            spanBottom.copyFrom(spanTop);
             fillGrid(recycler, state, true);
             // If it cannot fill until the bottomBorder, call  scrollBy() to fill.
-            if(spanBottomMax < bottomBorder){
-                scrollBy(spanBottomMax - bottomBorder, recycler, state);
+            if(spanBottom.getMax() < bottomBorder){
+                scrollBy(spanBottom.getMax() - bottomBorder, recycler, state);
             }
             // Finally, we layout disappearing views.
             layoutDisappearingViews(recycler, state);
@@ -314,12 +771,11 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             lastAttachedItemPosition = firstAttachedItemPosition;
             topBorder = getPaddingTop();
             bottomBorder = getHeight() - getPaddingBottom();
-            spanBottom = Arrays.copyOf(spanTop, mSpanCount);
-            updateSpanBottomParameters();
+            spanBottom.copyFrom(spanTop);
             fillGrid(recycler, state, true);
             // The number of items is too small, call scrollBy() to fill.
-            if(spanBottomMax - bottomBorder < 0){
-                scrollBy(spanBottomMax - bottomBorder, recycler, state);
+            if(spanBottom.getMax() - bottomBorder < 0){
+                scrollBy(spanBottom.getMax() - bottomBorder, recycler, state);
             }
         }
         // After the real layout, we need to clear some parameters.
@@ -330,29 +786,594 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
     }
 
     /**
-     * Return true to indicate that it supports scrolling vertically.
+     * Start the background computation if it is enabled and not started,
+     * and use the finished chunks.
+     * @param state
+     */
+    private void startPrecompute(RecyclerView.State state){
+        if(precomputer == null && precomputeExecutor != null && mSpanSizeLookup != null
+                && state.getItemCount() > 0){
+            precomputer = new PlacementPrecomputer(mSpanCount, state.getItemCount(),
+                    mSpanSizeLookup, checkpoints.getInterval());
+            precomputedCells = IntBuffer.wrap(precomputer.getCells());
+            precomputeExecutor.execute(precomputer);
+        }
+        applyPrecomputedPlacements();
+    }
+
+    /**
+     * Use the chunks finished in the background, i.e., back itemPlacements with the cells
+     * and replace the checkpoints if there are more.
+     * The cells and the checkpoints hidden by removeFrom() and removeAfter() are used again,
+     * since the precomputer is cancelled when the data set is changed, so they are valid.
+     */
+    private void applyPrecomputedPlacements(){
+        if(precomputer == null)
+            return;
+        final int completedCount = precomputer.getCompletedCount();
+        // The placements from the disk cache may be more.
+        if(completedCount > itemPlacements.getBackingLimit()){
+            itemPlacements.setBackingCells(precomputedCells, completedCount);
+        }
+        final int checkpointCount = precomputer.getCheckpointCount(completedCount);
+        if(checkpointCount > checkpoints.getCount() || checkpoints.getFirst() != 0){
+            checkpoints.copyFrom(0, precomputer.getCheckpointValues(),
+                    checkpointCount * mSpanCount);
+        }
+    }
+
+    /**
+     * Stop the background computation, since the data set is changed.
+     * It is started again with the next layout.
+     */
+    private void cancelPrecompute(){
+        if(precomputer != null){
+            precomputer.cancel();
+            precomputer = null;
+            precomputedCells = null;
+        }
+    }
+
+    /**
+     * Remove the placements and the checkpoints which depend on the position,
+     * and reset firstUpdatedPosition.
+     * @param position
+     */
+    private void invalidatePlacements(int position){
+        itemPlacements.removeFrom(position);
+        checkpoints.removeAfter(position);
+        firstUpdatedPosition = -1;
+        updatedAnchorPosition = RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Return true to indicate that it supports scrolling vertically.
+     * @return
+     */
+    @Override
+    public boolean canScrollVertically(){
+        return true;
+    }
+
+    /**
+     * The distance scrolled from the top of the first item.
+     * @param state
+     * @return
+     */
+    @Override
+    public int computeVerticalScrollOffset(RecyclerView.State state){
+        if(getChildCount() == 0)
+            return 0;
+        return Math.max(0, scrollOffset);
+    }
+
+    /**
+     * The height of the RecyclerView without the paddings.
+     * @param state
+     * @return
+     */
+    @Override
+    public int computeVerticalScrollExtent(RecyclerView.State state){
+        if(getChildCount() == 0)
+            return 0;
+        return getHeight() - getPaddingTop() - getPaddingBottom();
+    }
+
+    /**
+     * The height of all items, which is exact if the last item has been laid out,
+     * otherwise it is estimated from the furthest height we know.
+     * @param state
+     * @return
+     */
+    @Override
+    public int computeVerticalScrollRange(RecyclerView.State state){
+        if(getChildCount() == 0)
+            return 0;
+        final int extent = computeVerticalScrollExtent(state);
+        return Math.max(estimateContentHeight(state.getItemCount()), scrollOffset + extent);
+    }
+
+    /**
+     * Estimate the height of all items in O(1).
+     * The height of the items before lastAttachedItemPosition + 1 is given by spanBottom,
+     * and the height before each checkpoint is stored with it, which may be further
+     * if the placements are restored or computed in the background.
+     * The items after the furthest one are assumed to have the same average height.
+     * @param itemCount
+     * @return
+     */
+    private int estimateContentHeight(int itemCount){
+        if(isDenseEnabled){
+            final int count = densePlacements.getCount();
+            final long height = (long) densePlacements.getHeight() * sizePerSpan;
+            if(count >= itemCount || count == 0)
+                return (int) height;
+            return (int) Math.min(Integer.MAX_VALUE, height * itemCount / count);
+        }
+        int knownPosition = lastAttachedItemPosition + 1;
+        // spanBottom is relative to the top of the first item with getPaddingTop() - scrollOffset.
+        long knownHeight = spanBottom.getMax() - getPaddingTop() + scrollOffset;
+        if(knownPosition >= itemCount)
+            return (int) knownHeight;
+        final int last = checkpoints.getCount() - 1;
+        if(last >= checkpoints.getFirst() && last * checkpoints.getInterval() > knownPosition){
+            knownPosition = last * checkpoints.getInterval();
+            knownHeight = (long) checkpoints.getHeight(last) * sizePerSpan;
+        }
+        if(knownPosition <= 0)
+            return (int) knownHeight;
+        return (int) Math.min(Integer.MAX_VALUE, knownHeight * itemCount / knownPosition);
+    }
+
+    /**
+     * Collect the items which will be laid out if we scroll dy, so the GapWorker
+     * can create and bind them before the frame they are needed.
+     * The items are placed from spanBottom or spanTop the same as fillGrid(),
+     * with the cached placements or the SpanSizeLookup. If an item cannot be placed
+     * without binding, it is the last item collected.
+     * @param dx
+     * @param dy
+     * @param state
+     * @param layoutPrefetchRegistry
+     */
+    @Override
+    public void collectAdjacentPrefetchPositions(int dx, int dy, RecyclerView.State state,
+                                                 LayoutPrefetchRegistry layoutPrefetchRegistry){
+        if(getChildCount() == 0 || dy == 0 || itemPlacements == null)
+            return;
+        if(isDenseEnabled){
+            // The next positions are laid out next in the dense mode as well.
+            final int position = dy > 0 ? lastAttachedItemPosition + 1
+                    : firstAttachedItemPosition - 1;
+            if(position >= 0 && position < state.getItemCount())
+                layoutPrefetchRegistry.addPosition(position, Math.abs(dy));
+            return;
+        }
+        // Prefetch at most two rows.
+        final int maxCount = mSpanCount * 2;
+        int count = 0;
+        if(dy > 0){
+            final int border = getHeight() - getPaddingBottom();
+            prefixSpans.copyFrom(spanBottom);
+            for(int i = lastAttachedItemPosition + 1; i < state.getItemCount() && count < maxCount;
+                i++){
+                if(prefixSpans.getMin() > border + dy)
+                    break;
+                layoutPrefetchRegistry.addPosition(i, Math.max(0, prefixSpans.getMin() - border));
+                count++;
+                final int cell = obtainPlacement(i, prefixSpans, null);
+                if(cell == 0)
+                    break;
+                SpanPlacement.stack(prefixSpans, cell, sizePerSpan);
+            }
+        }else{
+            final int border = getPaddingTop();
+            prefixSpans.copyFrom(spanTop);
+            for(int i = firstAttachedItemPosition - 1; i >= 0 && count < maxCount; i--){
+                if(prefixSpans.getMax() < border + dy)
+                    break;
+                layoutPrefetchRegistry.addPosition(i, Math.max(0, border - prefixSpans.getMax()));
+                count++;
+                // The items before the attached ones have been laid out, so they are cached.
+                final int cell = itemPlacements.get(i);
+                if(cell == 0)
+                    break;
+                SpanPlacement.stack(prefixSpans, cell, -sizePerSpan);
+            }
+        }
+    }
+
+    /**
+     * Collect the first items to be laid out, when the RecyclerView is nested
+     * and is about to be attached.
+     * @param adapterItemCount
+     * @param layoutPrefetchRegistry
+     */
+    @Override
+    public void collectInitialPrefetchPositions(int adapterItemCount,
+                                                LayoutPrefetchRegistry layoutPrefetchRegistry){
+        int anchor = 0;
+        if(mPendingScrollPosition != RecyclerView.NO_POSITION){
+            anchor = mPendingScrollPosition;
+        }else if(mPendingSavedState != null
+                && mPendingSavedState.anchorPosition != RecyclerView.NO_POSITION){
+            anchor = mPendingSavedState.anchorPosition;
+        }
+        final int end = Math.min(adapterItemCount, anchor + mInitialPrefetchItemCount);
+        for(int i = Math.max(0, anchor); i < end; i++){
+            layoutPrefetchRegistry.addPosition(i, 0);
+        }
+    }
+
+    /**
+     * Set the number of items to prefetch when the RecyclerView is nested,
+     * e.g., in a horizontal list, see collectInitialPrefetchPositions().
+     * @param itemCount
+     */
+    public void setInitialPrefetchItemCount(int itemCount){
+        mInitialPrefetchItemCount = itemCount;
+    }
+
+    public int getInitialPrefetchItemCount(){
+        return mInitialPrefetchItemCount;
+    }
+
+    /**
+     * We need to fill some extra space and offset children in this method.
+     * @param dy The distance scrolled.
+     * @param recycler
+     * @param state
+     * @return
+     */
+    @Override
+    public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state){
+        final LayoutMetrics passMetrics = metrics;
+        final OnLayoutMetricsListener listener = metricsListener;
+        final boolean isTraced = isTraceEnabled;
+        if(passMetrics == null && !isTraced)
+            return scrollVertically(dy, recycler, state);
+        beginPass(passMetrics, isTraced, LayoutMetrics.PASS_SCROLL, TRACE_SCROLL);
+        try{
+            return scrollVertically(dy, recycler, state);
+        }finally{
+            endPass(passMetrics, listener, isTraced);
+        }
+    }
+
+    private int scrollVertically(int dy, RecyclerView.Recycler recycler, RecyclerView.State state){
+        // Nothing to do when there are no attached items or dy = 0.
+        if(getChildCount() == 0 || dy == 0){
+            return 0;
+        }
+        if(isDenseEnabled){
+            return scrollDenseBy(dy, recycler, state);
+        }
+        applyPrecomputedPlacements();
+        return scrollBy(dy, recycler, state);
+
+    }
+
+    /**
+     * Start counting a pass and its trace section.
+     * @param passMetrics The metrics when the pass starts, or null.
+     * @param isTraced Whether tracing is enabled when the pass starts.
+     * @param pass
+     * @param sectionName
+     */
+    private static void beginPass(LayoutMetrics passMetrics, boolean isTraced, int pass,
+                                  String sectionName){
+        if(isTraced)
+            TraceCompat.beginSection(sectionName);
+        if(passMetrics != null){
+            passMetrics.reset(pass);
+            passMetrics.durationNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * End the trace section of the pass and report its metrics,
+     * with the same values as beginPass().
+     * @param passMetrics
+     * @param listener
+     * @param isTraced
+     */
+    private static void endPass(LayoutMetrics passMetrics, OnLayoutMetricsListener listener,
+                                boolean isTraced){
+        if(isTraced)
+            TraceCompat.endSection();
+        if(passMetrics != null){
+            passMetrics.durationNanos = System.nanoTime() - passMetrics.durationNanos;
+            listener.onLayoutMetrics(passMetrics);
+        }
+    }
+
+    /**
+     * Lay out the item of the position at the top with the next layout.
+     * The spans before the position are restored from the nearest checkpoint,
+     * so it does not depend on how far the position is, if the items before it are placed
+     * or there is a SpanSizeLookup. Otherwise see setSpanSizeLookup().
+     * @param position
+     */
+    @Override
+    public void scrollToPosition(int position){
+        mPendingScrollPosition = position;
+        mPendingScrollOffset = 0;
+        requestLayout();
+    }
+
+    /**
+     * Scroll to the distance from the top of the first item, e.g., for a fast scroller.
+     * The position at the offset is searched from the checkpoints and packed from
+     * the nearest one, then only the items around it are laid out with the next layout.
+     * If the offset is after the items we can place without binding,
+     * the position is estimated with computeVerticalScrollRange().
+     * @param offset
+     */
+    public void scrollToOffset(int offset){
+        final int itemCount = getItemCount();
+        if(getChildCount() == 0 || itemCount == 0)
+            return;
+        offset = Math.max(0, offset);
+        // The dense layout is always laid out from scrollOffset.
+        if(isDenseEnabled){
+            scrollOffset = offset;
+            requestLayout();
+            return;
+        }
+        // Find the last checkpoint whose item is at or above the offset.
+        int low = checkpoints.getFirst(), high = checkpoints.getCount() - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            if(checkpoints.getTop(mid) * sizePerSpan <= offset){
+                low = mid + 1;
+            }else{
+                high = mid - 1;
+            }
+        }
+        int position = checkpoints.restore(Math.max(0, high) * checkpoints.getInterval(),
+                prefixSpans, 0, sizePerSpan);
+        int top = prefixSpans.getMin();
+        // The tops of the items never decrease, so stop at the first one below the offset.
+        boolean isPlaced = true;
+        for(int i = position; i < itemCount - 1; i++){
+            final int cell = obtainPlacement(i, prefixSpans, null);
+            if(cell == 0){
+                isPlaced = false;
+                break;
+            }
+            SpanPlacement.stack(prefixSpans, cell, sizePerSpan);
+            if(prefixSpans.getMin() > offset)
+                break;
+            position = i + 1;
+            top = prefixSpans.getMin();
+        }
+        if(!isPlaced){
+            int estimated = (int) ((long) offset * itemCount
+                    / Math.max(1, estimateContentHeight(itemCount)));
+            if(estimated > position){
+                position = Math.min(estimated, itemCount - 1);
+                top = offset;
+            }
+        }
+        mPendingScrollPosition = position;
+        mPendingScrollOffset = offset - top;
+        requestLayout();
+    }
+
+    /**
+     * If the position is far away, we jump to the position about one screen from it first,
+     * and then scroll smoothly to it.
+     * @param recyclerView
+     * @param state
+     * @param position
+     */
+    @Override
+    public void smoothScrollToPosition(RecyclerView recyclerView, RecyclerView.State state,
+                                       int position){
+        if(getChildCount() != 0){
+            final int childCount = getChildCount();
+            if(position > lastAttachedItemPosition + checkpoints.getInterval()){
+                scrollToPosition(position - childCount);
+            }else if(position < firstAttachedItemPosition - checkpoints.getInterval()){
+                scrollToPosition(position + childCount);
+            }
+        }
+        LinearSmoothScroller scroller = new LinearSmoothScroller(recyclerView.getContext()) {
+            @Override
+            public PointF computeScrollVectorForPosition(int targetPosition) {
+                return IrregularLayoutManager.this.computeScrollVectorForPosition(targetPosition);
+            }
+        };
+        scroller.setTargetPosition(position);
+        startSmoothScroll(scroller);
+    }
+
+    /**
+     * Save the anchor, i.e., the first attached item, the spans before it
+     * and the checkpoints and placements before it, all in the number of spans.
+     * So the restored layout only lays out one screen from the anchor.
      * @return
      */
     @Override
-    public boolean canScrollVertically(){
+    public Parcelable onSaveInstanceState(){
+        if(mPendingSavedState != null){
+            return new SavedState(mPendingSavedState);
+        }
+        SavedState savedState = new SavedState();
+        if(getChildCount() == 0 || itemPlacements == null){
+            return savedState;
+        }
+        // Only the anchor is saved in the dense mode, the placements are packed from the first item.
+        if(isDenseEnabled){
+            savedState.spanCount = mSpanCount;
+            savedState.sizePerSpan = sizePerSpan;
+            savedState.anchorPosition = firstAttachedItemPosition;
+            savedState.anchorOffset = scrollOffset
+                    - densePlacements.getRow(firstAttachedItemPosition) * sizePerSpan;
+            return savedState;
+        }
+        savedState.spanCount = mSpanCount;
+        savedState.sizePerSpan = sizePerSpan;
+        savedState.anchorPosition = firstAttachedItemPosition;
+        // The anchor is at the minimum of spanTop.
+        savedState.anchorOffset = getPaddingTop() - spanTop.getMin();
+        savedState.spans = new int[mSpanCount];
+        for(int i = 0; i < mSpanCount; i++){
+            savedState.spans[i] = (spanTop.get(i) - getPaddingTop() + scrollOffset) / sizePerSpan;
+        }
+        // All checkpoints before the anchor, which are a few values per interval items,
+        // so the restored state can jump to any of the items above without packing from 0.
+        int end = Math.min(checkpoints.getCount(),
+                firstAttachedItemPosition / checkpoints.getInterval() + 1);
+        int start = checkpoints.getFirst();
+        if(start < end){
+            savedState.firstCheckpoint = start;
+            savedState.checkpoints = checkpoints.toArray(start, end);
+        }
+        // The placements of attached items and the items just before them.
+        end = lastAttachedItemPosition + 1;
+        start = Math.max(0, end - MAX_SAVED_PLACEMENTS);
+        savedState.firstPlacement = start;
+        savedState.placements = new int[end - start];
+        for(int i = start; i < end; i++){
+            savedState.placements[i - start] = itemPlacements.get(i);
+        }
+        return savedState;
+    }
+
+    @Override
+    public void onRestoreInstanceState(Parcelable state){
+        if(state instanceof SavedState){
+            mPendingSavedState = (SavedState) state;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Get the area where the item of the position is laid out, including its margins
+     * and decorations, in the coordinates of the RecyclerView.
+     * It works for the items which are not attached as well, without binding them.
+     * If the placement is cached, or there is a SpanSizeLookup, at most
+     * SkylineCheckpoints.DEFAULT_INTERVAL items are packed from the nearest checkpoint.
+     * Otherwise the items from the first one which is not placed are estimated with
+     * the average height, like scrollToOffset(), i.e., the row of the position, and the area
+     * is exact after a jump or a scroll places them, see setSpanSizeLookup().
+     * @param position
+     * @param outRect Receives the area.
+     * @return false if the position is out of range, or it is not placed in the dense mode
+     * and there is no SpanSizeLookup.
+     */
+    public boolean getItemRect(int position, Rect outRect){
+        if(itemPlacements == null || position < 0 || position >= getItemCount())
+            return false;
+        if(isDenseEnabled){
+            if(!ensureDensePlacements(position, null))
+                return false;
+            final int cell = densePlacements.getCell(position);
+            final int startSpan = PlacementTable.getStartSpan(cell);
+            // The same as layoutDenseChunk().
+            outRect.left = getPaddingLeft() + spanWidthBorders[startSpan];
+            outRect.right = getPaddingLeft()
+                    + spanWidthBorders[startSpan + PlacementTable.getWidthNum(cell)];
+            outRect.top = getPaddingTop() + densePlacements.getRow(position) * sizePerSpan
+                    + getPaddingTop() - scrollOffset;
+            outRect.bottom = outRect.top + PlacementTable.getHeightNum(cell) * sizePerSpan;
+            return true;
+        }
+        final int placedPosition = calculatePrefixSpans(position, null, prefixSpans, 0);
+        final int cell = placedPosition == position ? obtainPlacement(position, prefixSpans, null)
+                : 0;
+        if(cell == 0){
+            final int itemCount = getItemCount();
+            outRect.left = getPaddingLeft();
+            outRect.right = getPaddingLeft() + spanWidthBorders[mSpanCount];
+            outRect.top = getPaddingTop() + prefixSpans.getMin()
+                    + (int) ((long) (position - placedPosition) * estimateContentHeight(itemCount)
+                    / itemCount) + getPaddingTop() - scrollOffset;
+            outRect.bottom = outRect.top + sizePerSpan;
+            return true;
+        }
+        final int startSpan = PlacementTable.getStartSpan(cell);
+        // The same as layoutChunk(), the spans are converted with getPaddingTop() - scrollOffset.
+        outRect.left = getPaddingLeft() + spanWidthBorders[startSpan];
+        outRect.right = getPaddingLeft()
+                + spanWidthBorders[startSpan + PlacementTable.getWidthNum(cell)];
+        outRect.top = getPaddingTop() + prefixSpans.getMin() + getPaddingTop() - scrollOffset;
+        outRect.bottom = outRect.top + PlacementTable.getHeightNum(cell) * sizePerSpan;
         return true;
     }
 
     /**
-     * We need to fill some extra space and offset children in this method.
-     * @param dy The distance scrolled.
-     * @param recycler
-     * @param state
-     * @return
+     * Find the item at the point in the coordinates of the RecyclerView,
+     * including the items which are not attached, e.g., for drag-select with auto scroll.
+     * The item is searched from the last checkpoint where the span of the point is above it,
+     * so it is about O(log n) plus SkylineCheckpoints.DEFAULT_INTERVAL items.
+     * @param x
+     * @param y
+     * @return The position, or RecyclerView.NO_POSITION if there is no item
+     * or it cannot be known without binding.
      */
-    @Override
-    public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state){
-        // Nothing to do when there are no attached items or dy = 0.
-        if(getChildCount() == 0 || dy == 0){
-            return 0;
+    public int findPositionAt(int x, int y){
+        if(itemPlacements == null)
+            return RecyclerView.NO_POSITION;
+        // Convert the point into the span and the content coordinate, see getItemRect().
+        final int left = x - getPaddingLeft();
+        final int top = y - getPaddingTop() - getPaddingTop() + scrollOffset;
+        if(left < 0 || left >= spanWidthBorders[mSpanCount] || top < 0)
+            return RecyclerView.NO_POSITION;
+        int span = 0;
+        while(spanWidthBorders[span + 1] <= left){
+            span++;
         }
-        return scrollBy(dy, recycler, state);
+        if(isDenseEnabled){
+            return findDensePositionAt(span, top / sizePerSpan);
+        }
+
+        // Find the last checkpoint where the span is above the point,
+        // so the item at the point is after it.
+        int low = checkpoints.getFirst(), high = checkpoints.getCount() - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            if(checkpoints.get(mid, span) * sizePerSpan <= top){
+                low = mid + 1;
+            }else{
+                high = mid - 1;
+            }
+        }
+        final int itemCount = getItemCount();
+        for(int i = checkpoints.restore(high * checkpoints.getInterval(), prefixSpans, 0,
+                sizePerSpan); i < itemCount; i++){
+            final int itemTop = prefixSpans.getMin();
+            // The items after it are all below the point.
+            if(itemTop > top)
+                break;
+            final int cell = obtainPlacement(i, prefixSpans, null);
+            if(cell == 0)
+                break;
+            final int startSpan = PlacementTable.getStartSpan(cell);
+            final int heightNum = PlacementTable.getHeightNum(cell);
+            if(startSpan <= span && span < startSpan + PlacementTable.getWidthNum(cell)
+                    && top < itemTop + heightNum * sizePerSpan){
+                return i;
+            }
+            prefixSpans.add(startSpan, PlacementTable.getWidthNum(cell), heightNum * sizePerSpan);
+        }
+        return RecyclerView.NO_POSITION;
+    }
 
+    /**
+     * If a jump is pending, e.g., the one of smoothScrollToPosition(), the direction is from
+     * the position of the jump, since the smooth scroller may start before it is laid out.
+     * @param targetPosition
+     * @return The direction to scroll to the target position, or null if it is unknown.
+     */
+    public PointF computeScrollVectorForPosition(int targetPosition){
+        if(getChildCount() == 0){
+            return null;
+        }
+        final int firstPosition = mPendingScrollPosition != RecyclerView.NO_POSITION
+                ? mPendingScrollPosition : firstAttachedItemPosition;
+        return new PointF(0, targetPosition < firstPosition ? -1 : 1);
     }
 
     /**
@@ -373,27 +1394,21 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             mCurrentPosition = lastAttachedItemPosition + 1;
             fillGrid(recycler, state, true);
             // Offset child views.
-            if(spanBottomMin >= bottomBorder) {
+            if(spanBottom.getMin() >= bottomBorder) {
                 delta = dy;
                 bottomBorder -= dy;
             }else { // There are no more items we need to lay out.
                 bottomBorder = getHeight() - getPaddingBottom();
-                if(spanBottomMax - bottomBorder >= dy){
+                if(spanBottom.getMax() - bottomBorder >= dy){
                     delta = dy;
                 }else{
-                    delta = Math.max(0, spanBottomMax - bottomBorder);
+                    delta = Math.max(0, spanBottom.getMax() - bottomBorder);
                 }
             }
             offsetChildrenVertical(-delta);
             // After offset children, we need to update parameters.
-            for(int i = 0; i < mSpanCount; i++) {
-                spanTop[i] -= delta;
-                spanBottom[i] -= delta;
-            }
-            spanTopMin -= delta;
-            spanTopMax -= delta;
-            spanBottomMin -= delta;
-            spanBottomMax -= delta;
+            spanTop.offset(-delta);
+            spanBottom.offset(-delta);
             // Recycle views out of the topBorder
             recycleTopInvisibleViews(recycler);
         }else{ // dy < 0
@@ -412,27 +1427,21 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             }
             fillGrid(recycler, state, false);
             // Offset child views.
-            if(spanTopMax <= topBorder) {
+            if(spanTop.getMax() <= topBorder) {
                 delta = dy;
                 topBorder -= dy;
             }else { // There are no more items we need to lay out.
                 topBorder = getPaddingTop();
-                if(spanTopMin - topBorder <= dy){
+                if(spanTop.getMin() - topBorder <= dy){
                     delta = dy;
                 }else{
-                    delta = -Math.max(0, topBorder - spanTopMin);
+                    delta = -Math.max(0, topBorder - spanTop.getMin());
                 }
             }
             offsetChildrenVertical(-delta);
             // After offset children, we need to update parameters.
-            for(int i = 0; i < mSpanCount; i++) {
-                spanTop[i] -= delta;
-                spanBottom[i] -= delta;
-            }
-            spanTopMin -= delta;
-            spanTopMax -= delta;
-            spanBottomMin -= delta;
-            spanBottomMax -= delta;
+            spanTop.offset(-delta);
+            spanBottom.offset(-delta);
             // Recycle views out of the bottomBorder.
             recycleBottomInvisibleViews(recycler);
         }
@@ -448,138 +1457,474 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
 
         topBorder = getPaddingTop();
         bottomBorder = getHeight() - getPaddingBottom();
-        spanTop = new int[mSpanCount];
-        Arrays.fill(spanTop, getPaddingTop());
-        spanBottom = new int[mSpanCount];
-        Arrays.fill(spanBottom,getPaddingTop());
-        spanTopMin = getPaddingTop();
-        spanTopMax = getPaddingTop();
-        spanBottomMin = getPaddingTop();
-        spanBottomMax = getPaddingTop();
-        firstOneEmptyBottomSpanIndex = 0;
-        firstTwoEmptyBottomSpanIndex = 0;
-        spanWidthBorders = new int[mSpanCount + 1];
+        spanTop = new SpanPacker(mSpanCount);
+        spanTop.reset(getPaddingTop());
+        spanBottom = new SpanPacker(mSpanCount);
+        spanBottom.reset(getPaddingTop());
         calculateSpanWidthBorders(getWidth() - getPaddingLeft() - getPaddingRight());
         mCurrentPosition = 0;
         firstAttachedItemPosition = 0;
         lastAttachedItemPosition = 0;
-        itemLayoutWidthCache = new SparseIntArray();
-        itemLayoutHeightCache = new SparseIntArray();
-        itemOccupiedStartSpan = new SparseIntArray();
+        // The placements are in the number of spans, so they are reused for the span count
+        // until the data set is changed, even if the width is changed.
+        SpanCountPlacements cached = spanCountPlacements.get(mSpanCount);
+        if(cached == null){
+            cached = new SpanCountPlacements(mSpanCount);
+            spanCountPlacements.put(mSpanCount, cached);
+        }
+        itemPlacements = cached.placements;
+        checkpoints = cached.checkpoints;
+        densePlacements = cached.densePlacements;
+        prefixSpans = new SpanPacker(mSpanCount);
+        // Read the placements computed in the last run, so we can jump without packing them again.
+        if(placementCache != null && !isPlacementCacheLoaded){
+            placementCache.load(mSpanCount, itemPlacements, checkpoints);
+            isPlacementCacheLoaded = true;
+        }
         //isRandomSize = true;
         scrollOffset = 0;
         isBeforePreLayout = true;
         firstChangedPosition = -1;
         removedTopAndBoundPositionCount = 0;
-        disappearingViewCache = new TreeMap<>(new Comparator<Integer>() {
-            @Override
-            public int compare(Integer lhs, Integer rhs) {
-                return rhs.compareTo(lhs);
-            }
-        });
+        disappearingViewCache.clear();
         isNotifyDataSetChanged = false;
+        firstUpdatedPosition = -1;
+        updatedAnchorPosition = RecyclerView.NO_POSITION;
+
+        predictedState.clearPlacements();
+    }
+
+    /**
+     * @return true if the span count or the width is changed after the last initialization.
+     */
+    private boolean isSpanLayoutChanged(){
+        return spanWidthBorders == null || spanWidthBorders.length != mSpanCount + 1
+                || spanWidthBorders[mSpanCount] != getWidth() - getPaddingLeft() - getPaddingRight();
+    }
+
+    /**
+     * Calculate spanWidthBorders.
+     * This is the same as calculateItemBorders(int totalSpace) in the GridLayoutManager.
+     * @param totalSpace
+     */
+    private void calculateSpanWidthBorders(int totalSpace){
+        spanWidthBorders = SpanPacker.calculateSpanWidthBorders(spanWidthBorders, mSpanCount,
+                totalSpace);
+        sizePerSpan = totalSpace / mSpanCount;
+    }
+
+
+    /**
+     * The layout of the dense mode. The items which intersect the area from scrollOffset
+     * are laid out, and scrollOffset is only changed by scrolling or jumping.
+     * @param recycler
+     * @param state
+     */
+    private void layoutDense(RecyclerView.Recycler recycler, RecyclerView.State state){
+        // The first layout, or the data set is changed, lay out from the top.
+        if(getChildCount() == 0 || isNotifyDataSetChanged || densePlacements == null){
+            initializeLayoutParameters();
+        }
+        if(mPendingScrollPosition != RecyclerView.NO_POSITION){
+            final int position = Math.max(0,
+                    Math.min(mPendingScrollPosition, state.getItemCount() - 1));
+            ensureDensePlacements(position, recycler);
+            scrollOffset = densePlacements.getRow(position) * sizePerSpan + mPendingScrollOffset;
+        }else if(mPendingSavedState != null
+                && mPendingSavedState.anchorPosition != RecyclerView.NO_POSITION){
+            final SavedState savedState = mPendingSavedState;
+            final int position = Math.min(savedState.anchorPosition, state.getItemCount() - 1);
+            ensureDensePlacements(position, recycler);
+            scrollOffset = densePlacements.getRow(position) * sizePerSpan
+                    + (savedState.sizePerSpan == 0 ? 0
+                    : savedState.anchorOffset * sizePerSpan / savedState.sizePerSpan);
+        }
+        mPendingScrollPosition = RecyclerView.NO_POSITION;
+        mPendingScrollOffset = 0;
+        mPendingSavedState = null;
+        firstChangedPosition = -1;
+        firstUpdatedPosition = -1;
+        updatedAnchorPosition = RecyclerView.NO_POSITION;
+        removedTopAndBoundPositionCount = 0;
+
+        detachAndScrapAttachedViews(recycler);
+        scrollOffset = clampDenseScrollOffset(scrollOffset, recycler, state);
+        fillDense(recycler, state);
+    }
 
-        fakeItemLayoutWidthCache = new SparseIntArray();
-        fakeItemLayoutHeightCache = new SparseIntArray();
-        fakeItemOccupiedStartSpan = new SparseIntArray();
+    /**
+     * Scroll in the dense mode. The attached items are offset,
+     * and the items which enter or leave the area are added or recycled.
+     * @param dy
+     * @param recycler
+     * @param state
+     * @return The distance scrolled.
+     */
+    private int scrollDenseBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state){
+        final int delta = clampDenseScrollOffset(scrollOffset + dy, recycler, state) - scrollOffset;
+        if(delta == 0)
+            return 0;
+        offsetChildrenVertical(-delta);
+        scrollOffset += delta;
+        fillDense(recycler, state);
+        return delta;
     }
 
     /**
-     * Update spanBottomMin, spanBottomMax,
-     * firstOneEmptyBottomSpanIndex and firstTwoEmptyBottomSpanIndex.
+     * Clamp the offset so the area is not out of the items.
+     * The bottom is only known after all items are placed,
+     * so the items are placed until the bottom of the area.
+     * @param offset
+     * @param recycler
+     * @param state
+     * @return
      */
-    private void updateSpanBottomParameters(){
-        spanBottomMin = spanBottom[0];
-        spanBottomMax = spanBottom[0];
-        for(int i = 1; i < mSpanCount; i++){
-            if(spanBottomMin > spanBottom[i])
-                spanBottomMin = spanBottom[i];
-            if(spanBottomMax < spanBottom[i])
-                spanBottomMax = spanBottom[i];
+    private int clampDenseScrollOffset(int offset, RecyclerView.Recycler recycler,
+                                       RecyclerView.State state){
+        final int extent = getHeight() - getPaddingTop() - getPaddingBottom();
+        ensureDenseRows((offset + extent) / sizePerSpan + 1, recycler, state);
+        if(densePlacements.getCount() >= state.getItemCount()){
+            offset = Math.min(offset, densePlacements.getHeight() * sizePerSpan - extent);
         }
-        for(int i = 0; i < mSpanCount; i++){
-            if(spanBottom[i] == spanBottomMin){
-                firstOneEmptyBottomSpanIndex = i;
-                break;
-            }
+        return Math.max(0, offset);
+    }
+
+    /**
+     * Attach the items which intersect the area, and recycle the others.
+     * The attached items are always from firstAttachedItemPosition to lastAttachedItemPosition,
+     * so there may be a few items out of the area between them.
+     * @param recycler
+     * @param state
+     */
+    private void fillDense(RecyclerView.Recycler recycler, RecyclerView.State state){
+        final int topRow = scrollOffset / sizePerSpan;
+        final int bottomRow = (scrollOffset + getHeight() - getPaddingTop() - getPaddingBottom())
+                / sizePerSpan + 1;
+        ensureDenseRows(bottomRow, recycler, state);
+        final int count = Math.min(densePlacements.getCount(), state.getItemCount());
+        if(count == 0){
+            removeAndRecycleAllViews(recycler);
+            return;
         }
-        firstTwoEmptyBottomSpanIndex = -1;
-        for(int i = firstOneEmptyBottomSpanIndex; i < mSpanCount - 1; i++){
-            if(spanBottom[i] == spanBottomMin && spanBottom[i + 1] == spanBottomMin){
-                firstTwoEmptyBottomSpanIndex = i;
-                break;
+        // The items before first are above the area, and the items after last are below it.
+        final int first = Math.min(densePlacements.findFirstBelow(topRow), count - 1);
+        int last = first;
+        for(int i = first; i < count && densePlacements.getFloor(i) < bottomRow; i++){
+            if(densePlacements.getRow(i) < bottomRow)
+                last = i;
+        }
+
+        final int childCount = getChildCount();
+        if(childCount == 0 || first > lastAttachedItemPosition || last < firstAttachedItemPosition){
+            removeAndRecycleAllViews(recycler);
+            for(int i = first; i <= last; i++){
+                layoutDenseChunk(i, -1, recycler);
+            }
+        }else{
+            // Recycle the items out of the range, and add the new items at both ends.
+            for(int i = childCount - 1; i >= 0; i--){
+                final int position = firstAttachedItemPosition + i;
+                if(position < first || position > last){
+                    removeAndRecycleViewAt(i, recycler);
+                    if(metrics != null)
+                        metrics.viewsRecycled++;
+                }
+            }
+            for(int i = firstAttachedItemPosition - 1; i >= first; i--){
+                layoutDenseChunk(i, 0, recycler);
+            }
+            for(int i = lastAttachedItemPosition + 1; i <= last; i++){
+                layoutDenseChunk(i, -1, recycler);
             }
         }
+        firstAttachedItemPosition = first;
+        lastAttachedItemPosition = last;
     }
 
     /**
-     * Update fake params.
+     * Lay out an item in the dense mode.
+     * @param position
+     * @param index The index of the child, or -1 to add it to the end.
+     * @param recycler
      */
-    private void updateFakeSpanBottomParameters(){
-        fakeSpanBottomMin = fakeSpanBottom[0];
-        fakeSpanBottomMax = fakeSpanBottom[0];
-        for(int i = 1; i < mSpanCount; i++){
-            if(fakeSpanBottomMin > fakeSpanBottom[i])
-                fakeSpanBottomMin = fakeSpanBottom[i];
-            if(fakeSpanBottomMax < fakeSpanBottom[i])
-                fakeSpanBottomMax = fakeSpanBottom[i];
+    private void layoutDenseChunk(int position, int index, RecyclerView.Recycler recycler){
+        if(metrics != null){
+            metrics.itemsPlaced++;
+            metrics.placementHits++;
         }
-        for(int i = 0; i < mSpanCount; i++){
-            if(fakeSpanBottom[i] == fakeSpanBottomMin){
-                fakeFirstOneEmptyBottomSpanIndex = i;
-                break;
-            }
+        final View view = recycler.getViewForPosition(position);
+        final LayoutParams lp = (LayoutParams) view.getLayoutParams();
+        if(index == -1){
+            addView(view);
+        }else{
+            addView(view, index);
+        }
+        final int cell = densePlacements.getCell(position);
+        final boolean isCached = calculateItemDecorations(view, lp,
+                PlacementTable.getWidthNum(cell), PlacementTable.getHeightNum(cell));
+        final int startSpan = PlacementTable.getStartSpan(cell);
+        final int left = getPaddingLeft() + spanWidthBorders[startSpan] + lp.leftMargin;
+        final int right = getPaddingLeft()
+                + spanWidthBorders[startSpan + PlacementTable.getWidthNum(cell)] - lp.rightMargin;
+        // The same as layoutChunk(), the top of the first item is getPaddingTop() * 2.
+        final int rowTop = getPaddingTop() + densePlacements.getRow(position) * sizePerSpan
+                + getPaddingTop() - scrollOffset;
+        final int top = rowTop + lp.topMargin;
+        final int bottom = rowTop + PlacementTable.getHeightNum(cell) * sizePerSpan
+                - lp.bottomMargin;
+        measureChildIfChanged(view, View.MeasureSpec.makeMeasureSpec(
+                        right - left - mDecorInsets.left - mDecorInsets.right,
+                        View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(
+                        bottom - top - mDecorInsets.top - mDecorInsets.bottom,
+                        View.MeasureSpec.EXACTLY), isCached);
+        layoutDecorated(view, left, top, right, bottom);
+    }
+
+    /**
+     * Place the items in the dense mode until the position.
+     * @param position
+     * @param recycler Used to bind the items if there is no SpanSizeLookup, or null.
+     * @return false if an item cannot be placed without binding.
+     */
+    private boolean ensureDensePlacements(int position, RecyclerView.Recycler recycler){
+        while(densePlacements.getCount() <= position){
+            if(!appendDensePlacement(recycler))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Place the items in the dense mode until the floor reaches the row,
+     * i.e., all items which may be above the row are placed.
+     * @param row
+     * @param recycler
+     * @param state
+     */
+    private void ensureDenseRows(int row, RecyclerView.Recycler recycler,
+                                 RecyclerView.State state){
+        final int itemCount = state.getItemCount();
+        while(densePlacements.getCount() < itemCount && densePlacements.getNextFloor() < row){
+            if(!appendDensePlacement(recycler))
+                return;
+        }
+    }
+
+    /**
+     * Place the next item in the dense mode.
+     * @param recycler
+     * @return false if the item cannot be placed without binding.
+     */
+    private boolean appendDensePlacement(RecyclerView.Recycler recycler){
+        final int position = densePlacements.getCount();
+        if(mSpanSizeLookup != null){
+            densePlacements.append(getLookupWidthNum(position), getLookupHeightNum(position));
+        }else if(recycler != null){
+            View view = recycler.getViewForPosition(position);
+            LayoutParams lp = (LayoutParams) view.getLayoutParams();
+            calculateSpanNums(lp);
+            densePlacements.append(lp.widthNum, lp.heightNum);
+            recycler.recycleView(view);
+        }else{
+            return false;
         }
-        fakeFirstTwoEmptyBottomSpanIndex = -1;
-        for(int i = fakeFirstOneEmptyBottomSpanIndex; i < mSpanCount - 1; i++){
-            if(fakeSpanBottom[i] == fakeSpanBottomMin && fakeSpanBottom[i + 1] == fakeSpanBottomMin){
-                fakeFirstTwoEmptyBottomSpanIndex = i;
+        return true;
+    }
+
+    /**
+     * Find the item at the span and the row in the dense mode.
+     * @param span
+     * @param row
+     * @return The position, or RecyclerView.NO_POSITION.
+     */
+    private int findDensePositionAt(int span, int row){
+        final int itemCount = getItemCount();
+        for(int i = densePlacements.findFirstBelow(row); ; i++){
+            if(i >= densePlacements.getCount()
+                    && (i >= itemCount || !ensureDensePlacements(i, null)))
+                break;
+            if(densePlacements.getFloor(i) > row)
                 break;
+            final int cell = densePlacements.getCell(i);
+            final int startSpan = PlacementTable.getStartSpan(cell);
+            final int itemRow = densePlacements.getRow(i);
+            if(startSpan <= span && span < startSpan + PlacementTable.getWidthNum(cell)
+                    && itemRow <= row && row < itemRow + PlacementTable.getHeightNum(cell)){
+                return i;
             }
         }
+        return RecyclerView.NO_POSITION;
     }
 
     /**
-     * Update spanTopMin and spanTopMax.
+     * Lay out from the position, i.e., the item of the position is at the top.
+     * Attached views should be detached before it is called.
+     * If more than MAX_PREFIX_BINDS items before it need to be bound, i.e., there is no
+     * SpanSizeLookup, lay out from the last item placed instead, and go on with the next layout.
+     * @param position
+     * @param offset The distance from the top of the position to the top border.
+     * @param recycler
+     * @param state
      */
-    private void updateSpanTopParameters(){
-        spanTopMin = spanTop[0];
-        spanTopMax = spanTop[0];
-        for(int i = 1; i < mSpanCount; i++){
-            if(spanTopMin > spanTop[i])
-                spanTopMin = spanTop[i];
-            if(spanTopMax < spanTop[i])
-                spanTopMax = spanTop[i];
+    private void layoutFromPosition(int position, int offset, RecyclerView.Recycler recycler,
+                                    RecyclerView.State state){
+        mPendingScrollPosition = RecyclerView.NO_POSITION;
+        mPendingScrollOffset = 0;
+        mPendingSavedState = null;
+        position = Math.max(0, Math.min(position, state.getItemCount() - 1));
+
+        // The spans before the position, with the top of the first item as 0.
+        final int placedPosition = calculatePrefixSpans(position, recycler, spanTop,
+                MAX_PREFIX_BINDS);
+        if(placedPosition < position){
+            layoutFromSpanTop(placedPosition, 0, recycler, state);
+            mPendingScrollPosition = position;
+            mPendingScrollOffset = offset;
+            // A layout cannot be requested during the layout.
+            postOnAnimation(continueJump);
+            return;
         }
+        layoutFromSpanTop(position, offset, recycler, state);
     }
 
     /**
-     * Calculate spanWidthBorders.
-     * This is the same as calculateItemBorders(int totalSpace) in the GridLayoutManager.
-     * @param totalSpace
+     * Restore the saved state.
+     * If the span count or the data set is changed, just lay out from the anchor.
+     * @param savedState
+     * @param recycler
+     * @param state
      */
-    private void calculateSpanWidthBorders(int totalSpace){
-        if(spanWidthBorders == null || spanWidthBorders.length != mSpanCount + 1
-                || spanWidthBorders[spanWidthBorders.length - 1] != totalSpace){
-            spanWidthBorders = new int[mSpanCount + 1];
+    private void layoutFromSavedState(SavedState savedState, RecyclerView.Recycler recycler,
+                                      RecyclerView.State state){
+        mPendingSavedState = null;
+        if(savedState.anchorPosition == RecyclerView.NO_POSITION){
+            fillGrid(recycler, state, true);
+            return;
         }
-        spanWidthBorders[0] = 0;
-        sizePerSpan = totalSpace / mSpanCount;
-        int sizePerSpanRemainder = totalSpace % mSpanCount;
-        int consumedPixels = 0;
-        int additionalSize = 0;
-        for (int i = 1; i <= mSpanCount; i++) {
-            int itemSize = sizePerSpan;
-            additionalSize += sizePerSpanRemainder;
-            if (additionalSize > 0 && (mSpanCount - additionalSize) < sizePerSpanRemainder) {
-                itemSize += 1;
-                additionalSize -= mSpanCount;
-            }
-            consumedPixels += itemSize;
-            spanWidthBorders[i] = consumedPixels;
+        // The spans are not saved in the dense mode.
+        if(savedState.spanCount != mSpanCount || savedState.spans.length != mSpanCount
+                || savedState.anchorPosition >= state.getItemCount()){
+            layoutFromPosition(savedState.anchorPosition, 0, recycler, state);
+            return;
+        }
+        checkpoints.copyFrom(savedState.firstCheckpoint, savedState.checkpoints);
+        final int placementCount = Math.min(savedState.placements.length,
+                state.getItemCount() - savedState.firstPlacement);
+        for(int i = 0; i < placementCount; i++){
+            itemPlacements.putCell(savedState.firstPlacement + i, savedState.placements[i]);
+        }
+        // The width may be changed, e.g., after rotation, so convert the spans to pixels again.
+        int[] spans = new int[mSpanCount];
+        for(int i = 0; i < mSpanCount; i++){
+            spans[i] = savedState.spans[i] * sizePerSpan;
+        }
+        spanTop.copyFrom(spans);
+        int offset = savedState.sizePerSpan == 0 ? 0
+                : savedState.anchorOffset * sizePerSpan / savedState.sizePerSpan;
+        layoutFromSpanTop(savedState.anchorPosition, offset, recycler, state);
+    }
+
+    /**
+     * Lay out from the position with spanTop, which contains the spans before the position
+     * with the top of the first item as 0.
+     * @param position
+     * @param offset The distance from the top of the position to the top border.
+     * @param recycler
+     * @param state
+     */
+    private void layoutFromSpanTop(int position, int offset, RecyclerView.Recycler recycler,
+                                   RecyclerView.State state){
+        // The position is laid out at the minimum of the spans, move it to the top.
+        scrollOffset = spanTop.getMin() + offset;
+        spanTop.offset(getPaddingTop() - scrollOffset);
+        spanBottom.copyFrom(spanTop);
+        topBorder = getPaddingTop();
+        bottomBorder = getHeight() - getPaddingBottom();
+
+        // Fill the bottom from the position.
+        mCurrentPosition = position;
+        firstAttachedItemPosition = position;
+        lastAttachedItemPosition = position;
+        fillGrid(recycler, state, true);
+        // Fill the top, since the items before the position may be higher than it.
+        mCurrentPosition = position - 1;
+        fillGrid(recycler, state, false);
+        // The position is near the end, call scrollBy() to fill.
+        if(spanBottom.getMax() < bottomBorder){
+            scrollBy(spanBottom.getMax() - bottomBorder, recycler, state);
+        }
+    }
+
+    /**
+     * Calculate the spans after the items before the position are laid out,
+     * with the top of the first item as 0.
+     * It starts from the nearest checkpoint. The sizes of the items without the cached placement
+     * are read from the SpanSizeLookup, or the items are bound to get their sizes.
+     * @param position
+     * @param recycler It is null if the items should not be bound.
+     * @param spans Receives the spans.
+     * @param maxBinds The maximum number of items to bind, e.g., MAX_PREFIX_BINDS for a jump
+     *                 which goes on with the next layout, or 0 for a query like getItemRect().
+     * @return The position, or the first item which cannot be placed without binding
+     * or binding more items, and spans contains the spans before it.
+     */
+    private int calculatePrefixSpans(int position, RecyclerView.Recycler recycler,
+                                     SpanPacker spans, int maxBinds){
+        int binds = 0;
+        for(int i = checkpoints.restore(position, spans, 0, sizePerSpan); i < position; i++){
+            checkpoints.put(i, spans, 0, sizePerSpan);
+            if(mSpanSizeLookup == null && !itemPlacements.contains(i) && binds++ == maxBinds)
+                return i;
+            int cell = obtainPlacement(i, spans, recycler);
+            if(cell == 0)
+                return i;
+            SpanPlacement.stack(spans, cell, sizePerSpan);
+        }
+        checkpoints.put(position, spans, 0, sizePerSpan);
+        return position;
+    }
+
+    /**
+     * Get the placement of the position, and calculate it if it is not cached.
+     * @param position
+     * @param spans The spans before the position.
+     * @param recycler Used to bind the item if there is no SpanSizeLookup,
+     *                 or null if the item should not be bound.
+     * @return The cell of the placement, or 0 if it cannot be calculated without binding.
+     */
+    private int obtainPlacement(int position, SpanPacker spans, RecyclerView.Recycler recycler){
+        int cell = itemPlacements.get(position);
+        if(cell != 0)
+            return cell;
+        int widthNum, heightNum;
+        if(mSpanSizeLookup != null){
+            widthNum = getLookupWidthNum(position);
+            heightNum = getLookupHeightNum(position);
+        }else if(recycler != null){
+            View view = recycler.getViewForPosition(position);
+            LayoutParams lp = (LayoutParams) view.getLayoutParams();
+            calculateSpanNums(lp);
+            widthNum = lp.widthNum;
+            heightNum = lp.heightNum;
+            recycler.recycleView(view);
+        }else{
+            return 0;
         }
+        return SpanPlacement.place(itemPlacements, position, widthNum, heightNum, spans);
     }
 
+    /**
+     * Calculate the widthNum and the heightNum according to the size of the child view,
+     * if the LayoutParams does not contain them.
+     * @param lp
+     */
+    private void calculateSpanNums(LayoutParams lp){
+        if(lp.widthNum == 0){
+            lp.widthNum = SpanPacker.calculateSpanNum(lp.width, sizePerSpan);
+            lp.heightNum = SpanPacker.calculateSpanNum(lp.height, sizePerSpan);
+        }
+    }
 
     /**
      * fill the area between the topBorder and the bottomBorder.
@@ -589,9 +1934,14 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
      */
     private void fillGrid(RecyclerView.Recycler recycler, RecyclerView.State state,
                           boolean isFillBottom) {
-        while ( ( (isFillBottom && spanBottomMin <= bottomBorder) || (!isFillBottom && spanTopMax >= topBorder) )
+        while ( ( (isFillBottom && spanBottom.getMin() <= bottomBorder) || (!isFillBottom && spanTop.getMax() >= topBorder) )
                 && mCurrentPosition >=0 && mCurrentPosition < state.getItemCount()) {
+            final boolean isTraced = isTraceEnabled;
+            if(isTraced)
+                TraceCompat.beginSection(TRACE_LAYOUT_CHUNK);
             layoutChunk(recycler, state, isFillBottom);
+            if(isTraced)
+                TraceCompat.endSection();
         }
     }
 
@@ -604,9 +1954,14 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
      * @param state
      */
     private void fillGridForPreLayout(RecyclerView.Recycler recycler, RecyclerView.State state) {
-        while ( fakeSpanBottomMin <= bottomBorder
+        while ( predictedState.spanBottom.getMin() <= bottomBorder
                 && mCurrentPosition >=0 && mCurrentPosition < state.getItemCount()) {
+            final boolean isTraced = isTraceEnabled;
+            if(isTraced)
+                TraceCompat.beginSection(TRACE_LAYOUT_CHUNK);
             layoutChunk(recycler, state, true, true);
+            if(isTraced)
+                TraceCompat.endSection();
         }
     }
 
@@ -625,57 +1980,38 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         // We do the pre layout and calculate the layout params for the real layout.
         if(firstChangedPosition >= firstAttachedItemPosition){
             // Store the layout parameters.
-            int firstAttachedItemPositionTemp = firstAttachedItemPosition;
+            realStateBackup.set(mCurrentPosition, firstAttachedItemPosition, spanTop, spanBottom);
             int lastAttachedItemPositionTemp = lastAttachedItemPosition;
-            int[] spanTopTemp = Arrays.copyOf(spanTop, mSpanCount);
-            int[] spanBottomTemp = Arrays.copyOf(spanBottom, mSpanCount);
 
             topBorder = getPaddingTop();
             bottomBorder = getHeight() - getPaddingBottom();
-            spanBottom = Arrays.copyOf(spanTop, mSpanCount);
-            updateSpanBottomParameters();
+            spanBottom.copyFrom(spanTop);
 
             detachAndScrapAttachedViews(recycler);
 
             mCurrentPosition = firstAttachedItemPosition;
             lastAttachedItemPosition = firstAttachedItemPosition;
 
-            // Set the fake params.
-            fakeSpanBottomMin = spanBottomMin;
-            fakeSpanBottomMax = spanBottomMax;
-            fakeCurrentPosition = mCurrentPosition;
-            fakeFirstAttachedItemPosition = firstAttachedItemPosition;
-            fakeFirstOneEmptyBottomSpanIndex = firstOneEmptyBottomSpanIndex;
-            fakeFirstTwoEmptyBottomSpanIndex = firstTwoEmptyBottomSpanIndex;
-            fakeSpanTop = Arrays.copyOf(spanTop, mSpanCount);
-            fakeSpanBottom = Arrays.copyOf(spanBottom, mSpanCount);
+            // Set the predicted state.
+            predictedState.set(mCurrentPosition, firstAttachedItemPosition, spanTop, spanBottom);
 
             // Lay out current attached views and appearing views.
             fillGridForPreLayout(recycler, state);
 
             // Restore the layout parameters.
-            firstAttachedItemPosition = firstAttachedItemPositionTemp;
+            firstAttachedItemPosition = realStateBackup.firstAttachedItemPosition;
             lastAttachedItemPosition = lastAttachedItemPositionTemp;
-            spanTop = Arrays.copyOf(spanTopTemp, mSpanCount);
-            spanBottom = Arrays.copyOf(spanBottomTemp, mSpanCount);
-            updateSpanTopParameters();
-            updateSpanBottomParameters();
+            spanTop.copyFrom(realStateBackup.spanTop);
+            spanBottom.copyFrom(realStateBackup.spanBottom);
         }else{ // There are removed items out of the top border.
 
             // Calculate the spanTop begin with the firstChangedPosition
             // and update layout parameters.
             topBorder = getPaddingTop() - scrollOffset;
-            Arrays.fill(spanTop, topBorder);
-            for (int i = 0; i < firstChangedPosition; i++) {
-                for (int j = 0; j < itemLayoutWidthCache.get(i); j++) {
-                    int spanIndex = itemOccupiedStartSpan.get(i) + j;
-                    spanTop[spanIndex] += itemLayoutHeightCache.get(i) * sizePerSpan;
-                }
-            }
-            updateSpanTopParameters();
+            calculatePrefixSpans(firstChangedPosition, recycler, spanTop, Integer.MAX_VALUE);
+            spanTop.offset(topBorder);
             bottomBorder = getHeight() - getPaddingBottom();
-            spanBottom = Arrays.copyOf(spanTop, mSpanCount);
-            updateSpanBottomParameters();
+            spanBottom.copyFrom(spanTop);
             mCurrentPosition = firstChangedPosition;
             // Fill from the spanTop until bottomBorder.
             // Note that we just lay out attached views and appearing views.
@@ -686,39 +2022,29 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
 
             detachAndScrapAttachedViews(recycler);
 
-            // Set the fake params.
-            fakeSpanBottomMin = spanBottomMin;
-            fakeSpanBottomMax = spanBottomMax;
-            fakeCurrentPosition = mCurrentPosition;
-            fakeFirstAttachedItemPosition = firstAttachedItemPosition;
-            fakeFirstOneEmptyBottomSpanIndex = firstOneEmptyBottomSpanIndex;
-            fakeFirstTwoEmptyBottomSpanIndex = firstTwoEmptyBottomSpanIndex;
-            fakeSpanTop = Arrays.copyOf(spanTop, mSpanCount);
-            fakeSpanBottom = Arrays.copyOf(spanBottom, mSpanCount);
+            // Set the predicted state.
+            predictedState.set(mCurrentPosition, firstAttachedItemPosition, spanTop, spanBottom);
 
             // Lay out current attached views and appearing views.
             fillGridForPreLayout(recycler, state);
 
             // Restore the layout parameters.
-            firstAttachedItemPosition = fakeFirstAttachedItemPosition;
-            spanTop = Arrays.copyOf(fakeSpanTop, mSpanCount);
-            spanBottom = Arrays.copyOf(fakeSpanBottom, mSpanCount);
-            updateSpanTopParameters();
-            updateSpanBottomParameters();
+            firstAttachedItemPosition = predictedState.firstAttachedItemPosition;
+            spanTop.copyFrom(predictedState.spanTop);
+            spanBottom.copyFrom(predictedState.spanBottom);
         }
 
     }
 
     // Lay out disappearing views from the last one to the first one
     private void layoutDisappearingViews(RecyclerView.Recycler recycler, RecyclerView.State state){
-        Iterator<Integer> iterator = disappearingViewCache.keySet().iterator();
-        while(iterator.hasNext()){
-            int position = iterator.next();
-            View view = recycler.getViewForPosition(position);
-            DisappearingViewParams params = disappearingViewCache.get(position);
+        for(int i = disappearingViewCache.size() - 1; i >= 0; i--){
+            View view = recycler.getViewForPosition(disappearingViewCache.getPosition(i));
             addDisappearingView(view, 0);
-            view.measure(params.widthSpec, params.heightSpec);
-            layoutDecorated(view, params.left, params.top, params.right, params.bottom);
+            view.measure(disappearingViewCache.getWidthSpec(i),
+                    disappearingViewCache.getHeightSpec(i));
+            layoutDecorated(view, disappearingViewCache.getLeft(i), disappearingViewCache.getTop(i),
+                    disappearingViewCache.getRight(i), disappearingViewCache.getBottom(i));
         }
     }
 
@@ -750,65 +2076,67 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         int fakeWidthNum  = 0, fakeHeightNum = 0, fakeNextItemIndex = 0;
 
         View view = null;
-        DisappearingViewParams params = null;
         // If disappearingViewCache contains the params of the current view to be laid out,
-        // get its params. This happens when too many items are removed,
+        // get its index. This happens when too many items are removed,
         // and the fillGird() cannot fill to the bottom. Then scrollBy() is called.
-        if(disappearingViewCache.containsKey(mCurrentPosition)){
-            params = disappearingViewCache.get(mCurrentPosition);
+        final int disappearingIndex = disappearingViewCache.indexOf(mCurrentPosition);
+        // When filling the top, the placement may not be cached, e.g., after the state is restored.
+        // Calculate it from the nearest checkpoint. The checkpoints before the attached items
+        // are kept, see onSaveInstanceState(), so it binds at most MAX_PREFIX_BINDS items,
+        // but the item is needed to fill the top, so the limit is not checked.
+        if(!isFillBottom && !itemPlacements.contains(mCurrentPosition)){
+            calculatePrefixSpans(mCurrentPosition + 1, recycler, prefixSpans, Integer.MAX_VALUE);
         }
         // Get view from the recycler.
         view = recycler.getViewForPosition(mCurrentPosition);
 
         final LayoutParams lp = (LayoutParams) view.getLayoutParams();
+        // The sizes from the SpanSizeLookup take precedence over the ones set by the adapter.
+        // During the pre-layout, the position should be converted, and it is -1 if it is removed.
+        if(mSpanSizeLookup != null){
+            int adapterPosition = state.isPreLayout()
+                    ? recycler.convertPreLayoutPositionToPostLayout(mCurrentPosition)
+                    : mCurrentPosition;
+            if(adapterPosition != RecyclerView.NO_POSITION){
+                lp.widthNum = getLookupWidthNum(adapterPosition);
+                lp.heightNum = getLookupHeightNum(adapterPosition);
+            }
+        }
 
         // Calculate the widthNum and the heightNum.
         // If the cache contains the widthNum and heightNum, get them from the cache.
-        if(itemLayoutWidthCache.get(mCurrentPosition, 0) != 0){
-            widthNum = itemLayoutWidthCache.get(mCurrentPosition);
-            heightNum = itemLayoutHeightCache.get(mCurrentPosition);
-            nextItemIndex = itemOccupiedStartSpan.get(mCurrentPosition);
-        }else{
-            // Otherwise, if LayoutParams contains them, get them from the LayoutParams.
-            if(lp.widthNum != 0){
-                widthNum = lp.widthNum;
-                heightNum = lp.heightNum;
+        final int cell = itemPlacements.get(mCurrentPosition);
+        if(metrics != null){
+            metrics.itemsPlaced++;
+            if(cell != 0){
+                metrics.placementHits++;
             }else{
-                // Otherwise, calculate the widthNum and the heightNum
-                // according to the size of the child view.
-                widthNum = Math.min(2, Math.max(1, lp.width / sizePerSpan));
-                heightNum = Math.min(2, Math.max(1, lp.height / sizePerSpan));
-                lp.widthNum = widthNum;
-                lp.heightNum = heightNum;
-            }
-            // If widthNum = 2 and there are no two sequential empty spans, just set widthNum as 1.
-            if (isFillBottom && firstTwoEmptyBottomSpanIndex == -1) {
-                widthNum = 1;
-            }
-            // Store the layout widthNum and heightNum (different from the original one).
-            itemLayoutWidthCache.put(mCurrentPosition, widthNum);
-            itemLayoutHeightCache.put(mCurrentPosition, heightNum);
-            // Calculate the index of the first occupied span.
-            if(isFillBottom) {
-                nextItemIndex = widthNum == 1 ?
-                        firstOneEmptyBottomSpanIndex : firstTwoEmptyBottomSpanIndex;
+                metrics.placementMisses++;
             }
-            // Store the index of the first occupied span, which is useful when scrolling up.
-            itemOccupiedStartSpan.put(mCurrentPosition, nextItemIndex);
+        }
+        if(cell != 0){
+            widthNum = PlacementTable.getWidthNum(cell);
+            heightNum = PlacementTable.getHeightNum(cell);
+            nextItemIndex = PlacementTable.getStartSpan(cell);
+        }else{
+            // Otherwise, get them from the LayoutParams,
+            // or calculate them according to the size of the child view.
+            calculateSpanNums(lp);
+            // Store the layout widthNum and heightNum (different from the original one)
+            // and the index of the first occupied span, which is useful when scrolling up.
+            final int placed = SpanPlacement.place(itemPlacements, mCurrentPosition, lp.widthNum,
+                    lp.heightNum, isFillBottom ? spanBottom : null);
+            widthNum = PlacementTable.getWidthNum(placed);
+            heightNum = PlacementTable.getHeightNum(placed);
+            nextItemIndex = PlacementTable.getStartSpan(placed);
         }
 
         // Calculate fake params.
         if(isPreLayout && !lp.isItemRemoved()){
-            fakeWidthNum = lp.widthNum;
-            fakeHeightNum = lp.heightNum;
-            if(fakeFirstTwoEmptyBottomSpanIndex == -1){
-                fakeWidthNum = 1;
-            }
-            fakeNextItemIndex = fakeWidthNum == 1 ?
-                    fakeFirstOneEmptyBottomSpanIndex : fakeFirstTwoEmptyBottomSpanIndex;
-            fakeItemLayoutWidthCache.put(fakeCurrentPosition, fakeWidthNum);
-            fakeItemLayoutHeightCache.put(fakeCurrentPosition, fakeHeightNum);
-            fakeItemOccupiedStartSpan.put(fakeCurrentPosition, fakeNextItemIndex);
+            final int fakeCell = predictedState.placeItem(lp.widthNum, lp.heightNum);
+            fakeWidthNum = PlacementTable.getWidthNum(fakeCell);
+            fakeHeightNum = PlacementTable.getHeightNum(fakeCell);
+            fakeNextItemIndex = PlacementTable.getStartSpan(fakeCell);
         }
 
         // Calculate the left, right, top and bottom of the view to be laid out.
@@ -816,25 +2144,27 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         int fakeLeft = 0, fakeRight = 0, fakeTop = 0, fakeBottom = 0;
 
         // We do not need to calculate decorations for views in the disappearingViewCache.
-        if(params == null) {
-            calculateItemDecorationsForChild(view, mDecorInsets);
+        boolean isCached = false;
+        if(disappearingIndex == -1) {
+            isCached = calculateItemDecorations(view, lp, widthNum, heightNum);
         }
         left = getPaddingLeft() + spanWidthBorders[nextItemIndex] + lp.leftMargin;
         right = getPaddingLeft() + spanWidthBorders[nextItemIndex + widthNum] - lp.rightMargin;
         if(isFillBottom){
-            top = getPaddingTop() + spanBottomMin + lp.topMargin;
-            bottom = getPaddingTop() + spanBottomMin + sizePerSpan * heightNum - lp.bottomMargin;
+            top = getPaddingTop() + spanBottom.getMin() + lp.topMargin;
+            bottom = getPaddingTop() + spanBottom.getMin() + sizePerSpan * heightNum - lp.bottomMargin;
         }else{
-            bottom = getPaddingTop() + spanTop[nextItemIndex] - lp.bottomMargin;
-            top = getPaddingTop() + spanTop[nextItemIndex] - sizePerSpan * heightNum + lp.topMargin;
+            bottom = getPaddingTop() + spanTop.get(nextItemIndex) - lp.bottomMargin;
+            top = getPaddingTop() + spanTop.get(nextItemIndex) - sizePerSpan * heightNum + lp.topMargin;
         }
 
         if(isPreLayout && !lp.isItemRemoved()){
             fakeLeft = getPaddingLeft() + spanWidthBorders[fakeNextItemIndex] + lp.leftMargin;
             fakeRight = getPaddingLeft() + spanWidthBorders[fakeNextItemIndex + fakeWidthNum]
                     - lp.rightMargin;
-            fakeTop = getPaddingTop() + fakeSpanBottomMin + lp.topMargin;
-            fakeBottom = getPaddingTop() + fakeSpanBottomMin + sizePerSpan * fakeHeightNum
+            fakeTop = getPaddingTop() + predictedState.spanBottom.getMin() + lp.topMargin;
+            fakeBottom = getPaddingTop() + predictedState.spanBottom.getMin()
+                    + sizePerSpan * fakeHeightNum
                     - lp.bottomMargin;
         }
 
@@ -846,7 +2176,7 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             }else if(bottom + lp.bottomMargin >= getPaddingTop() || // Attached
                     firstAttachedItemPosition != -1 ||
                     fakeBottom + lp.bottomMargin >= getPaddingTop() || // Appearing
-                    fakeFirstAttachedItemPosition != -1){
+                    predictedState.firstAttachedItemPosition != -1){
                 // If it is pre-layout, we just lay out attached views and appearing views.
                 if(lp.isItemRemoved()) {
                     addDisappearingView(view);
@@ -861,7 +2191,7 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         // Make measureSpec.
         int widthSpec, heightSpec;
         int fakeWidthSpec = 0, fakeHeightSpec = 0;
-        if(params == null) {
+        if(disappearingIndex == -1) {
             widthSpec = View.MeasureSpec.makeMeasureSpec(
                     right - left - mDecorInsets.left - mDecorInsets.right, View.MeasureSpec.EXACTLY);
             heightSpec = View.MeasureSpec.makeMeasureSpec(
@@ -869,8 +2199,8 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         }else{
             // If disappearingViewCache contains the params,
             // get the widthSpec and the heightSpec from it.
-            widthSpec = params.widthSpec;
-            heightSpec = params.heightSpec;
+            widthSpec = disappearingViewCache.getWidthSpec(disappearingIndex);
+            heightSpec = disappearingViewCache.getHeightSpec(disappearingIndex);
         }
 
         if(isPreLayout && !lp.isItemRemoved()){
@@ -888,44 +2218,45 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
                 (isPreLayout && (bottom + lp.bottomMargin >= getPaddingTop() || // Attached
                                 firstAttachedItemPosition != -1 ||
                                 fakeBottom + lp.bottomMargin >= getPaddingTop() || // Appearing
-                                fakeFirstAttachedItemPosition != -1)
+                                predictedState.firstAttachedItemPosition != -1)
                              && !lp.isItemRemoved())){
-            view.measure(widthSpec, heightSpec);
+            measureChildIfChanged(view, widthSpec, heightSpec, isCached);
             layoutDecorated(view, left, top, right, bottom);
         }
         // If isPreLayout = true, for disappearing views, we put the params and position into cache.
         if(isPreLayout && (bottom + lp.bottomMargin >= getPaddingTop() || // Currently visible
                            firstAttachedItemPosition != -1)
                        && (fakeBottom + lp.bottomMargin < getPaddingTop() && // Invisible in real layout
-                           fakeFirstAttachedItemPosition == -1)
+                           predictedState.firstAttachedItemPosition == -1)
                        && !lp.isItemRemoved()){
-            disappearingViewCache.put(fakeCurrentPosition,
-                    new DisappearingViewParams(fakeWidthSpec, fakeHeightSpec,
-                                                fakeLeft, fakeTop, fakeRight, fakeBottom));
+            disappearingViewCache.put(predictedState.currentPosition,
+                    fakeWidthSpec, fakeHeightSpec, fakeLeft, fakeTop, fakeRight, fakeBottom);
         }
         // For the normal layout,
         // if we lay out a disappearing view, it should be removed from the cache.
-        if(!isPreLayout && params != null){
-            disappearingViewCache.remove(mCurrentPosition);
+        if(!isPreLayout && disappearingIndex != -1){
+            disappearingViewCache.removeAt(disappearingIndex);
         }
 
         // update some parameters
         if(isFillBottom){
-            for (int i = 0; i < widthNum; i++)
-                spanBottom[nextItemIndex + i] += sizePerSpan * heightNum;
-            updateSpanBottomParameters();
+            // spanBottom is the skyline before the position, store it if it is a checkpoint.
+            if(!isPreLayout && checkpoints.isCheckpoint(mCurrentPosition)){
+                checkpoints.put(mCurrentPosition, spanBottom, getPaddingTop() - scrollOffset,
+                        sizePerSpan);
+            }
+            spanBottom.add(nextItemIndex, widthNum, sizePerSpan * heightNum);
             if(!isPreLayout){
                 lastAttachedItemPosition = mCurrentPosition;
             }else{
                 // If isPreLayout = true.
-                for (int i = 0; i < fakeWidthNum; i++)
-                    fakeSpanBottom[fakeNextItemIndex + i] += sizePerSpan * fakeHeightNum;
-                updateFakeSpanBottomParameters();
-                // we need to update fakeFirstAttachedItemPosition and firstAttachedItemPosition.
-                if(fakeFirstAttachedItemPosition == -1 &&
+                predictedState.spanBottom.add(fakeNextItemIndex, fakeWidthNum,
+                        sizePerSpan * fakeHeightNum);
+                // we need to update the predicted and the real firstAttachedItemPosition.
+                if(predictedState.firstAttachedItemPosition == -1 &&
                         !lp.isItemRemoved() &&
                         fakeBottom + lp.bottomMargin >= getPaddingTop()){
-                    fakeFirstAttachedItemPosition = fakeCurrentPosition;
+                    predictedState.firstAttachedItemPosition = predictedState.currentPosition;
                 }
                 if(firstAttachedItemPosition == -1 && bottom + lp.bottomMargin >= getPaddingTop()){
                     firstAttachedItemPosition = mCurrentPosition;
@@ -933,27 +2264,96 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             }
             mCurrentPosition++;
             if(isPreLayout && !lp.isItemRemoved()){
-                fakeCurrentPosition++;
+                predictedState.currentPosition++;
             }
-            // Update fakeSpanTop and spanTop.
-            if(isPreLayout && fakeFirstAttachedItemPosition == -1){
-                for (int i = 0; i < fakeWidthNum; i++)
-                    fakeSpanTop[fakeNextItemIndex + i] += sizePerSpan * fakeHeightNum;
+            // Update predictedState.spanTop and spanTop.
+            if(isPreLayout && predictedState.firstAttachedItemPosition == -1){
+                predictedState.spanTop.add(fakeNextItemIndex, fakeWidthNum,
+                        sizePerSpan * fakeHeightNum);
             }
             if(isPreLayout && firstAttachedItemPosition == -1){
-                for (int i = 0; i < widthNum; i++)
-                    spanTop[nextItemIndex + i] += sizePerSpan * heightNum;
+                spanTop.add(nextItemIndex, widthNum, sizePerSpan * heightNum);
             }
         }else{
-            for (int i = 0; i < widthNum; i++)
-                spanTop[nextItemIndex + i] -= sizePerSpan * heightNum;
-            updateSpanTopParameters();
+            spanTop.add(nextItemIndex, widthNum, -sizePerSpan * heightNum);
             firstAttachedItemPosition = mCurrentPosition;
             mCurrentPosition--;
         }
 
     }
 
+    /**
+     * Calculate the decorations of the child into mDecorInsets, or copy the ones cached
+     * in its LayoutParams if it is laid out with the same view type and size
+     * in the same layout generation, see setItemMeasureCacheEnabled().
+     * @param view
+     * @param lp
+     * @param widthNum The layout widthNum.
+     * @param heightNum The layout heightNum.
+     * @return True if the cached decorations are used.
+     */
+    private boolean calculateItemDecorations(View view, LayoutParams lp,
+                                             int widthNum, int heightNum){
+        final int viewType = getItemViewType(view);
+        if(isItemMeasureCacheEnabled && lp.decorationGeneration == decorationGeneration
+                && lp.cachedViewType == viewType && lp.cachedWidthNum == widthNum
+                && lp.cachedHeightNum == heightNum && lp.cachedSizePerSpan == sizePerSpan){
+            mDecorInsets.set(lp.cachedDecorInsets);
+            return true;
+        }
+        calculateItemDecorationsForChild(view, mDecorInsets);
+        lp.cachedDecorInsets.set(mDecorInsets);
+        lp.decorationGeneration = decorationGeneration;
+        lp.cachedViewType = viewType;
+        lp.cachedWidthNum = widthNum;
+        lp.cachedHeightNum = heightNum;
+        lp.cachedSizePerSpan = sizePerSpan;
+        // Measure it again, the specs may be the same with another size.
+        lp.measuredWidthSpec = 0;
+        lp.measuredHeightSpec = 0;
+        return false;
+    }
+
+    /**
+     * Measure the child unless the decorations are cached, it was measured with the same specs,
+     * e.g., it is laid out again after it is scrapped, or it is rebound for an item
+     * of the same size class, and none of its children requested a layout.
+     * The child itself requests a layout when it is added again, which is ignored.
+     * @param view
+     * @param widthSpec
+     * @param heightSpec
+     * @param isCached Whether the decorations are from calculateItemDecorations() cache.
+     */
+    private void measureChildIfChanged(View view, int widthSpec, int heightSpec,
+                                       boolean isCached){
+        final LayoutParams lp = (LayoutParams) view.getLayoutParams();
+        if(isCached && lp.measuredWidthSpec == widthSpec && lp.measuredHeightSpec == heightSpec
+                && view.getMeasuredWidth() == View.MeasureSpec.getSize(widthSpec)
+                && view.getMeasuredHeight() == View.MeasureSpec.getSize(heightSpec)
+                && !hasLayoutRequestedChild(view))
+            return;
+        view.measure(widthSpec, heightSpec);
+        lp.measuredWidthSpec = widthSpec;
+        lp.measuredHeightSpec = heightSpec;
+    }
+
+    /**
+     * A layout requested in the hierarchy is passed up to the direct children of the item,
+     * so only they are checked. A view without children is checked itself.
+     * @param view
+     * @return Whether the view needs to be measured for its content.
+     */
+    private static boolean hasLayoutRequestedChild(View view){
+        if(!(view instanceof ViewGroup))
+            return view.isLayoutRequested();
+        final ViewGroup group = (ViewGroup) view;
+        for(int i = 0; i < group.getChildCount(); i++){
+            if(group.getChildAt(i).isLayoutRequested())
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Recycle views out of the top border.
      * @param recycler
@@ -966,15 +2366,11 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             if(getDecoratedEnd(child) > topBorder){
                 recycleChildren(recycler, 0, i - 1);
                 firstAttachedItemPosition += i;
-                updateSpanTopParameters();
                 return;
             }
             // Update spanTop.
-            int heightNum = itemLayoutHeightCache.get(firstAttachedItemPosition + i);
-            for(int j = 0; j < itemLayoutWidthCache.get(firstAttachedItemPosition + i); j++){
-                int spanIndex = itemOccupiedStartSpan.get(firstAttachedItemPosition + i) + j;
-                spanTop[spanIndex] += heightNum * sizePerSpan;
-            }
+            int cell = itemPlacements.get(firstAttachedItemPosition + i);
+            SpanPlacement.stack(spanTop, cell, sizePerSpan);
         }
     }
 
@@ -990,16 +2386,12 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
             if(getDecoratedStart(child) < bottomBorder){
                 recycleChildren(recycler, i + 1, childCount - 1);
                 lastAttachedItemPosition -= (childCount - 1 - i);
-                updateSpanBottomParameters();
                 return;
             }
             // Update spanBottom.
             int position = lastAttachedItemPosition - (childCount - 1 - i);
-            int heightNum = itemLayoutHeightCache.get(position);
-            for(int j = 0; j < itemLayoutWidthCache.get(position); j++){
-                int spanIndex = itemOccupiedStartSpan.get(position) + j;
-                spanBottom[spanIndex] -= heightNum * sizePerSpan;
-            }
+            int cell = itemPlacements.get(position);
+            SpanPlacement.stack(spanBottom, cell, -sizePerSpan);
         }
     }
 
@@ -1012,9 +2404,16 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         if(startIndex > endIndex){
             return;
         }
+        final boolean isTraced = isTraceEnabled;
+        if(isTraced)
+            TraceCompat.beginSection(TRACE_RECYCLE);
         for(int i = endIndex; i >= startIndex; i--){
             removeAndRecycleViewAt(i, recycler);
         }
+        if(metrics != null)
+            metrics.viewsRecycled += endIndex - startIndex + 1;
+        if(isTraced)
+            TraceCompat.endSection();
     }
 
     /**
@@ -1062,12 +2461,34 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         return lp instanceof LayoutParams;
     }
 
+    /**
+     * Receives the metrics of each pass, see setOnLayoutMetricsListener().
+     */
+    public interface OnLayoutMetricsListener {
+        /**
+         * Called on the main thread after each pass. Do not keep the metrics,
+         * they are reused for the next pass.
+         * @param metrics
+         */
+        void onLayoutMetrics(LayoutMetrics metrics);
+    }
+
     public static class LayoutParams extends RecyclerView.LayoutParams {
 
         //Original widthNum.
         public int widthNum;
         //Original heightNum.
         public int heightNum;
+        /* The specs of the last measure, see measureChildIfChanged(). */
+        int measuredWidthSpec;
+        int measuredHeightSpec;
+        /* The key and the value of the cached decorations, see calculateItemDecorations(). */
+        int decorationGeneration;
+        int cachedViewType;
+        int cachedWidthNum;
+        int cachedHeightNum;
+        int cachedSizePerSpan;
+        final Rect cachedDecorInsets = new Rect();
 
         public LayoutParams(Context c, AttributeSet attrs) {
             super(c, attrs);
@@ -1086,17 +2507,109 @@ public class IrregularLayoutManager extends RecyclerView.LayoutManager {
         }
     }
 
-    public static class DisappearingViewParams {
-        int left, right, top, bottom;
-        int widthSpec, heightSpec;
-        DisappearingViewParams(int widthSpec, int heightSpec,
-                               int left, int top, int right, int bottom){
-            this.widthSpec = widthSpec;
-            this.heightSpec = heightSpec;
-            this.left = left;
-            this.right = right;
-            this.top = top;
-            this.bottom = bottom;
+    /**
+     * The state saved by onSaveInstanceState().
+     * The spans, the checkpoints and the placements are in the number of spans,
+     * so they are still valid if the width is changed.
+     */
+    public static class SavedState implements Parcelable {
+
+        int spanCount;
+        int sizePerSpan;
+        int anchorPosition = RecyclerView.NO_POSITION;
+        /* The distance from the top of the anchor to the top border. */
+        int anchorOffset;
+        /* The spans before the anchor. */
+        int[] spans = new int[0];
+        /* The index of the first saved checkpoint. */
+        int firstCheckpoint;
+        int[] checkpoints = new int[0];
+        /* The position of the first saved placement. */
+        int firstPlacement;
+        int[] placements = new int[0];
+
+        public SavedState(){
+        }
+
+        public SavedState(SavedState other){
+            spanCount = other.spanCount;
+            sizePerSpan = other.sizePerSpan;
+            anchorPosition = other.anchorPosition;
+            anchorOffset = other.anchorOffset;
+            spans = other.spans;
+            firstCheckpoint = other.firstCheckpoint;
+            checkpoints = other.checkpoints;
+            firstPlacement = other.firstPlacement;
+            placements = other.placements;
+        }
+
+        SavedState(Parcel in){
+            spanCount = in.readInt();
+            sizePerSpan = in.readInt();
+            anchorPosition = in.readInt();
+            anchorOffset = in.readInt();
+            spans = in.createIntArray();
+            firstCheckpoint = in.readInt();
+            checkpoints = in.createIntArray();
+            firstPlacement = in.readInt();
+            placements = in.createIntArray();
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeInt(spanCount);
+            dest.writeInt(sizePerSpan);
+            dest.writeInt(anchorPosition);
+            dest.writeInt(anchorOffset);
+            dest.writeIntArray(spans);
+            dest.writeInt(firstCheckpoint);
+            dest.writeIntArray(checkpoints);
+            dest.writeInt(firstPlacement);
+            dest.writeIntArray(placements);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR
+                = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    /**
+     * The placements for one span count.
+     */
+    private static class SpanCountPlacements {
+
+        final PlacementTable placements;
+        final SkylineCheckpoints checkpoints;
+        final DensePlacements densePlacements;
+
+        SpanCountPlacements(int spanCount){
+            placements = new PlacementTable();
+            checkpoints = new SkylineCheckpoints(spanCount);
+            densePlacements = new DensePlacements(spanCount);
+        }
+
+        /**
+         * Remove the placements which depend on the position.
+         * @param position
+         */
+        void removeFrom(int position){
+            placements.removeFrom(position);
+            checkpoints.removeAfter(position);
+            densePlacements.removeFrom(position);
         }
     }
 }
@@ -0,0 +1,171 @@
+package com.mwang.irregulargridview;
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+/**
+ * Records the frame durations with the Choreographer while the RecyclerView is scrolling
+ * or running the item animations, e.g., of the DynamicItemAnimator.
+ * A session starts when the RecyclerView starts to scroll or the adapter notifies a change,
+ * and ends when it is idle and no animations are running,
+ * then the FrameStats of the session are reported to the listener.
+ * The frame callback is only posted during a session.
+ */
+public class JankMonitor implements Choreographer.FrameCallback {
+
+    private final RecyclerView mRecyclerView;
+    private final OnSessionListener mListener;
+    private final FrameStats frameStats;
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if(newState != RecyclerView.SCROLL_STATE_IDLE)
+                startSession();
+        }
+    };
+    private final RecyclerView.AdapterDataObserver dataObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            startSession();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            startSession();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            startSession();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            startSession();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            startSession();
+        }
+    };
+    private RecyclerView.Adapter mAdapter;
+
+    private boolean isInSession;
+    /* Whether the first frame of the session has run, the durations are measured from it. */
+    private boolean hasFirstFrame;
+    private long lastFrameTimeNanos;
+
+    /**
+     * Start monitoring the RecyclerView. Its adapter is observed to find the item animations,
+     * and the adapter set later is observed from the next session.
+     * @param recyclerView
+     * @param listener Receives the stats of each session.
+     */
+    public JankMonitor(RecyclerView recyclerView, OnSessionListener listener){
+        mRecyclerView = recyclerView;
+        mListener = listener;
+        WindowManager windowManager = (WindowManager) recyclerView.getContext()
+                .getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        if(refreshRate < 1)
+            refreshRate = 60;
+        frameStats = new FrameStats((long) (1000000000 / refreshRate));
+        recyclerView.addOnScrollListener(scrollListener);
+        observeAdapter();
+    }
+
+    /**
+     * Stop monitoring, the current session is dropped.
+     */
+    public void detach(){
+        mRecyclerView.removeOnScrollListener(scrollListener);
+        if(mAdapter != null){
+            mAdapter.unregisterAdapterDataObserver(dataObserver);
+            mAdapter = null;
+        }
+        if(isInSession){
+            Choreographer.getInstance().removeFrameCallback(this);
+            isInSession = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos){
+        if(hasFirstFrame)
+            frameStats.addFrame(frameTimeNanos - lastFrameTimeNanos);
+        hasFirstFrame = true;
+        lastFrameTimeNanos = frameTimeNanos;
+        // After an adapter change, the first frame runs before the layout which queues
+        // the item animations, so the animator is not running yet. Keep the session
+        // until a frame is recorded, by then the animations are pending or running.
+        if(frameStats.getFrameCount() == 0 || isActive()){
+            Choreographer.getInstance().postFrameCallback(this);
+        }else{
+            isInSession = false;
+            observeAdapter();
+            mListener.onSession(frameStats, getSpanCount(), getItemCount());
+        }
+    }
+
+    private void startSession(){
+        if(isInSession)
+            return;
+        isInSession = true;
+        hasFirstFrame = false;
+        observeAdapter();
+        frameStats.reset();
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Observe the current adapter of the RecyclerView,
+     * since it may be replaced with setAdapter() or swapAdapter().
+     */
+    private void observeAdapter(){
+        RecyclerView.Adapter adapter = mRecyclerView.getAdapter();
+        if(adapter == mAdapter)
+            return;
+        if(mAdapter != null)
+            mAdapter.unregisterAdapterDataObserver(dataObserver);
+        mAdapter = adapter;
+        if(mAdapter != null)
+            mAdapter.registerAdapterDataObserver(dataObserver);
+    }
+
+    /**
+     * @return true if it is scrolling or the item animations are running.
+     */
+    private boolean isActive(){
+        if(mRecyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE)
+            return true;
+        RecyclerView.ItemAnimator animator = mRecyclerView.getItemAnimator();
+        return animator != null && animator.isRunning();
+    }
+
+    private int getSpanCount(){
+        RecyclerView.LayoutManager layoutManager = mRecyclerView.getLayoutManager();
+        return layoutManager instanceof IrregularLayoutManager
+                ? ((IrregularLayoutManager) layoutManager).getSpanCount() : 0;
+    }
+
+    private int getItemCount(){
+        return mAdapter == null ? 0 : mAdapter.getItemCount();
+    }
+
+    /**
+     * Receives the stats of each session.
+     */
+    public interface OnSessionListener {
+        /**
+         * Called on the main thread when a session ends.
+         * @param stats The frames of the session. It is reused for the next session,
+         *              so read the values in this method.
+         * @param spanCount The span count of the IrregularLayoutManager, or 0 for other ones.
+         * @param itemCount The number of items at the end of the session.
+         */
+        void onSession(FrameStats stats, int spanCount, int itemCount);
+    }
+}
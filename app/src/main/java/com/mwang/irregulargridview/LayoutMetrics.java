@@ -0,0 +1,68 @@
+package com.mwang.irregulargridview;
+
+/**
+ * The counters of one pass of the IrregularLayoutManager, i.e., a pre-layout,
+ * a layout or a scroll, reported to the OnLayoutMetricsListener after the pass.
+ * The same instance is reused for every pass, so copy the values to keep them.
+ */
+public class LayoutMetrics {
+
+    public static final int PASS_PRE_LAYOUT = 0;
+    public static final int PASS_LAYOUT = 1;
+    public static final int PASS_SCROLL = 2;
+
+    int pass;
+    /* The items laid out, including the ones laid out again. */
+    int itemsPlaced;
+    /* The items whose placement is read from the PlacementTable or computed. */
+    int placementHits;
+    int placementMisses;
+    int viewsRecycled;
+    long durationNanos;
+
+    /**
+     * @return PASS_PRE_LAYOUT, PASS_LAYOUT or PASS_SCROLL.
+     */
+    public int getPass(){
+        return pass;
+    }
+
+    public int getItemsPlaced(){
+        return itemsPlaced;
+    }
+
+    /**
+     * @return The number of items whose placement is cached,
+     * i.e., they are laid out without packing.
+     */
+    public int getPlacementHits(){
+        return placementHits;
+    }
+
+    /**
+     * @return The number of items which are packed, i.e., placed for the first time.
+     */
+    public int getPlacementMisses(){
+        return placementMisses;
+    }
+
+    public int getViewsRecycled(){
+        return viewsRecycled;
+    }
+
+    /**
+     * @return The time of the pass in nanoseconds, including binding the items.
+     */
+    public long getDurationNanos(){
+        return durationNanos;
+    }
+
+    void reset(int pass){
+        this.pass = pass;
+        itemsPlaced = 0;
+        placementHits = 0;
+        placementMisses = 0;
+        viewsRecycled = 0;
+        durationNanos = 0;
+    }
+}
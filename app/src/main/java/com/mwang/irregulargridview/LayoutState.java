@@ -0,0 +1,101 @@
+package com.mwang.irregulargridview;
+
+/**
+ * The state of filling the grid from the bottom: the skylines at both ends,
+ * the next position and the first attached position.
+ * The IrregularLayoutManager uses it during the pre-layout, both for the predicted state
+ * of the real layout and to back up its own state, instead of separate copies of each field.
+ *
+ * The packers are kept between the layouts and copied into, so a pre-layout does not
+ * allocate them again. The predicted placements are an overlay of the PlacementTable of the
+ * layout manager: only the positions laid out during the pre-layout are written,
+ * and only they are merged back, so the merge is proportional to the changed positions
+ * instead of the number of items.
+ */
+public class LayoutState {
+
+    SpanPacker spanTop;
+    SpanPacker spanBottom;
+    int currentPosition;
+    int firstAttachedItemPosition;
+    private final PlacementTable placements = new PlacementTable();
+    /* The first position written to the overlay since it was cleared, or -1. */
+    private int firstPlacedPosition = -1;
+
+    /**
+     * Copy the state, the packers are reused if the span count is the same.
+     * @param currentPosition
+     * @param firstAttachedItemPosition
+     * @param spanTop
+     * @param spanBottom
+     */
+    public void set(int currentPosition, int firstAttachedItemPosition,
+                    SpanPacker spanTop, SpanPacker spanBottom){
+        this.currentPosition = currentPosition;
+        this.firstAttachedItemPosition = firstAttachedItemPosition;
+        this.spanTop = copy(spanTop, this.spanTop);
+        this.spanBottom = copy(spanBottom, this.spanBottom);
+    }
+
+    /**
+     * Write the placement of the position to the overlay.
+     * @param position
+     * @param widthNum
+     * @param heightNum
+     * @param startSpan
+     */
+    public void putPlacement(int position, int widthNum, int heightNum, int startSpan){
+        placements.put(position, widthNum, heightNum, startSpan);
+        if(firstPlacedPosition == -1 || position < firstPlacedPosition)
+            firstPlacedPosition = position;
+    }
+
+    /**
+     * Place the item at the current position on spanBottom and write it to the overlay.
+     * @param widthNum
+     * @param heightNum
+     * @return The cell of the placement.
+     */
+    public int placeItem(int widthNum, int heightNum){
+        final int cell = SpanPlacement.place(placements, currentPosition, widthNum, heightNum,
+                spanBottom);
+        if(firstPlacedPosition == -1 || currentPosition < firstPlacedPosition)
+            firstPlacedPosition = currentPosition;
+        return cell;
+    }
+
+    /**
+     * Replace the placements of the target from the position with the ones in the overlay,
+     * and clear the overlay.
+     * @param target
+     * @param position The first position whose placement is invalid in the target.
+     * @param itemCount The number of items, the placements after them are dropped.
+     */
+    public void mergePlacementsInto(PlacementTable target, int position, int itemCount){
+        target.removeFrom(position);
+        if(firstPlacedPosition == -1)
+            return;
+        final int limit = Math.min(placements.getLimit(), itemCount);
+        for(int i = Math.max(position, firstPlacedPosition); i < limit; i++){
+            target.putCell(i, placements.get(i));
+        }
+        clearPlacements();
+    }
+
+    /**
+     * Clear the overlay, only the part which has been written.
+     */
+    public void clearPlacements(){
+        if(firstPlacedPosition != -1){
+            placements.removeFrom(firstPlacedPosition);
+            firstPlacedPosition = -1;
+        }
+    }
+
+    private static SpanPacker copy(SpanPacker source, SpanPacker dest){
+        if(dest == null || dest.getSpanCount() != source.getSpanCount())
+            return new SpanPacker(source);
+        dest.copyFrom(source);
+        return dest;
+    }
+}
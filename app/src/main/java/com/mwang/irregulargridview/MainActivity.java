@@ -14,6 +14,9 @@ import android.view.MenuItem;
 public class MainActivity extends AppCompatActivity
         implements NavigationView.OnNavigationItemSelectedListener {
 
+    /* The view pool shared by the grids of the fragments. */
+    private final SizeClassViewPool mViewPool = new SizeClassViewPool();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -36,6 +39,10 @@ public class MainActivity extends AppCompatActivity
         ft.commit();
     }
 
+    public SizeClassViewPool getViewPool() {
+        return mViewPool;
+    }
+
     @Override
     public void onBackPressed() {
         DrawerLayout drawer = (DrawerLayout) findViewById(R.id.drawer_layout);
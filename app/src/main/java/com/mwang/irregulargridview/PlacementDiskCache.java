@@ -0,0 +1,153 @@
+package com.mwang.irregulargridview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An on-disk cache of the placements and the checkpoints of the IrregularLayoutManager.
+ * The placement of an item only depends on the items before it and the span count,
+ * so if the data set is not changed, the placements computed in the last run are still valid.
+ *
+ * The file is keyed by the data set version and the span count, which are stored in the header.
+ * The placements are read through a memory-mapped file, i.e., they are only paged in
+ * when the layout manager reads them, and the checkpoints are copied when it is loaded.
+ *
+ * The file format is the header, the cells of the PlacementTable from position 0,
+ * and then the spans of the checkpoints, all in big-endian ints.
+ */
+public class PlacementDiskCache {
+
+    private static final int MAGIC = 0x49524743;
+    private static final int FORMAT_VERSION = 1;
+    /* magic, format version, data set version (2 ints), span count, interval,
+     * placement count, first checkpoint, checkpoint value count. */
+    private static final int HEADER_INTS = 9;
+
+    private final File mFile;
+    private final long mDatasetVersion;
+
+    /**
+     * @param file The cache file, e.g., in Context.getCacheDir().
+     * @param datasetVersion The version of the data set,
+     *                       which should be changed whenever the sizes of the items are changed.
+     */
+    public PlacementDiskCache(File file, long datasetVersion){
+        mFile = file;
+        mDatasetVersion = datasetVersion;
+    }
+
+    public File getFile(){
+        return mFile;
+    }
+
+    public long getDatasetVersion(){
+        return mDatasetVersion;
+    }
+
+    /**
+     * Load the cache into the table and the checkpoints if the file matches the key.
+     * The table is backed by the mapped placements, so they are read lazily.
+     * @param spanCount
+     * @param placements
+     * @param checkpoints
+     * @return false if there is no cache for the data set version and the span count.
+     */
+    public boolean load(int spanCount, PlacementTable placements, SkylineCheckpoints checkpoints){
+        if(!mFile.isFile())
+            return false;
+        try {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                if(channel.size() < HEADER_INTS * 4)
+                    return false;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+                IntBuffer ints = buffer.asIntBuffer();
+                if(ints.get(0) != MAGIC || ints.get(1) != FORMAT_VERSION
+                        || getLong(ints, 2) != mDatasetVersion || ints.get(4) != spanCount)
+                    return false;
+                final int interval = ints.get(5);
+                final int placementCount = ints.get(6);
+                final int firstCheckpoint = ints.get(7);
+                final int checkpointValueCount = ints.get(8);
+                if(placementCount < 0 || checkpointValueCount < 0
+                        || ints.limit() < HEADER_INTS + placementCount + checkpointValueCount)
+                    return false;
+
+                ints.position(HEADER_INTS);
+                IntBuffer cells = ints.slice();
+                cells.limit(placementCount);
+                placements.setBackingCells(cells);
+                if(interval == checkpoints.getInterval()){
+                    int[] values = new int[checkpointValueCount];
+                    ints.position(HEADER_INTS + placementCount);
+                    ints.get(values);
+                    checkpoints.copyFrom(firstCheckpoint, values);
+                }
+                return true;
+            } finally {
+                // The mapping is still valid after the file is closed.
+                file.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the placements and the checkpoints into the file.
+     * It writes a temporary file first and renames it, so a broken file is never loaded.
+     * @param spanCount
+     * @param placements
+     * @param checkpoints
+     * @throws IOException
+     */
+    public void save(int spanCount, PlacementTable placements, SkylineCheckpoints checkpoints)
+            throws IOException {
+        final int placementCount = placements.getLimit();
+        final int firstCheckpoint = checkpoints.getFirst();
+        int[] values = checkpoints.toArray(firstCheckpoint, checkpoints.getCount());
+
+        ByteBuffer buffer = ByteBuffer.allocate((HEADER_INTS + placementCount + values.length) * 4);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(MAGIC);
+        ints.put(FORMAT_VERSION);
+        ints.put((int) (mDatasetVersion >>> 32));
+        ints.put((int) mDatasetVersion);
+        ints.put(spanCount);
+        ints.put(checkpoints.getInterval());
+        ints.put(placementCount);
+        ints.put(firstCheckpoint);
+        ints.put(values.length);
+        for(int i = 0; i < placementCount; i++){
+            ints.put(placements.get(i));
+        }
+        ints.put(values);
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        } finally {
+            file.close();
+        }
+        if(!temp.renameTo(mFile)){
+            temp.delete();
+            throw new IOException("Cannot rename " + temp + " to " + mFile);
+        }
+    }
+
+    private static long getLong(IntBuffer ints, int index){
+        return ((long) ints.get(index) << 32) | (ints.get(index + 1) & 0xFFFFFFFFL);
+    }
+}
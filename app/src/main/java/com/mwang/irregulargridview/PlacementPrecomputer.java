@@ -0,0 +1,141 @@
+package com.mwang.irregulargridview;
+
+/**
+ * Computes the placements of all items on a worker thread, in chunks.
+ * The results are in the same format as the PlacementTable and the SkylineCheckpoints,
+ * in the number of spans, so they do not depend on the width of the RecyclerView.
+ *
+ * After each chunk the number of finished items is published with a volatile write,
+ * so another thread can read the cells and the checkpoints before getCompletedCount()
+ * without locks. The arrays are allocated up front and never replaced.
+ *
+ * The SpanSizeLookup is called on the worker thread, so it should be safe to call
+ * from another thread, e.g., backed by an immutable snapshot of the sizes.
+ */
+public class PlacementPrecomputer implements Runnable {
+
+    /* Default number of items packed before the progress is published. */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private final int mSpanCount;
+    private final int mItemCount;
+    private final int mInterval;
+    private final int mChunkSize;
+    private final SpanSizeLookup mSpanSizeLookup;
+
+    /* The cell of each position, see PlacementTable.makeCell(). */
+    private final int[] cells;
+    /* The spans of checkpoint k are stored from index k * mSpanCount. */
+    private final int[] checkpointValues;
+
+    /* The number of items whose placements are finished. */
+    private volatile int completedCount;
+    private volatile boolean isCancelled;
+    /* Whether the sizes from the lookup are invalid, the results are incomplete then. */
+    private volatile boolean isFailed;
+
+    /**
+     * @param spanCount
+     * @param itemCount
+     * @param spanSizeLookup
+     * @param interval The interval of the checkpoints, see SkylineCheckpoints.
+     */
+    public PlacementPrecomputer(int spanCount, int itemCount, SpanSizeLookup spanSizeLookup,
+                                int interval){
+        this(spanCount, itemCount, spanSizeLookup, interval, DEFAULT_CHUNK_SIZE);
+    }
+
+    public PlacementPrecomputer(int spanCount, int itemCount, SpanSizeLookup spanSizeLookup,
+                                int interval, int chunkSize){
+        mSpanCount = spanCount;
+        mItemCount = itemCount;
+        mSpanSizeLookup = spanSizeLookup;
+        mInterval = interval;
+        mChunkSize = chunkSize;
+        cells = new int[itemCount];
+        checkpointValues = new int[((itemCount + interval - 1) / interval) * spanCount];
+    }
+
+    @Override
+    public void run(){
+        SpanPacker spans = new SpanPacker(mSpanCount);
+        int position = 0;
+        try {
+            while(position < mItemCount && !isCancelled){
+                final int end = Math.min(mItemCount, position + mChunkSize);
+                for(; position < end; position++){
+                    if(position % mInterval == 0){
+                        int index = position / mInterval * mSpanCount;
+                        for(int i = 0; i < mSpanCount; i++){
+                            checkpointValues[index + i] = spans.get(i);
+                        }
+                    }
+                    int widthNum = mSpanSizeLookup.getWidthNum(position);
+                    int heightNum = mSpanSizeLookup.getHeightNum(position);
+                    if(!PlacementTable.isValidSize(widthNum, heightNum)){
+                        isFailed = true;
+                        return;
+                    }
+                    widthNum = spans.fitWidth(widthNum);
+                    int startSpan = spans.findStartSpan(widthNum);
+                    if(startSpan < 0){
+                        isFailed = true;
+                        return;
+                    }
+                    cells[position] = PlacementTable.makeCell(widthNum, heightNum, startSpan);
+                    spans.add(startSpan, widthNum, heightNum);
+                }
+                // Publish the chunk.
+                completedCount = end;
+            }
+        } catch (RuntimeException e) {
+            // The data set is changed during the computation, e.g., the lookup is out of bounds.
+            // The finished chunks are still valid until the layout manager cancels us.
+            isFailed = true;
+        }
+    }
+
+    /**
+     * Stop after the current chunk. The published results are not changed.
+     */
+    public void cancel(){
+        isCancelled = true;
+    }
+
+    public boolean isFailed(){
+        return isFailed;
+    }
+
+    public int getItemCount(){
+        return mItemCount;
+    }
+
+    /**
+     * @return The number of items whose placements are finished, from position 0.
+     */
+    public int getCompletedCount(){
+        return completedCount;
+    }
+
+    /**
+     * @return The cells, which are valid before getCompletedCount().
+     */
+    public int[] getCells(){
+        return cells;
+    }
+
+    /**
+     * @param completedCount The value returned by getCompletedCount().
+     * @return The number of checkpoints which are finished.
+     */
+    public int getCheckpointCount(int completedCount){
+        return (completedCount + mInterval - 1) / mInterval;
+    }
+
+    /**
+     * @return The spans of the checkpoints, in the format of SkylineCheckpoints.toArray().
+     */
+    public int[] getCheckpointValues(){
+        return checkpointValues;
+    }
+}
@@ -0,0 +1,200 @@
+package com.mwang.irregulargridview;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A dense table which stores the layout widthNum, the layout heightNum
+ * and the first occupied span for each position.
+ * The three values are packed into one int (a cell), 8 bits for each of them,
+ * so a lookup is just two array accesses instead of three binary searches.
+ * The cells are stored in chunks, which are allocated when the first position
+ * in the chunk is put, so sparse tables stay small.
+ *
+ * A cell of 0 means the position is not in the table, since widthNum is at least 1.
+ *
+ * The table may be backed by the cells of a PlacementDiskCache, which are read
+ * when a position is not in the chunks. Removing positions also hides them in the backing cells.
+ */
+public class PlacementTable {
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int WIDTH_SHIFT = 0;
+    private static final int HEIGHT_SHIFT = 8;
+    private static final int START_SPAN_SHIFT = 16;
+    private static final int FIELD_MASK = 0xFF;
+
+    /* The largest value each field can hold. */
+    public static final int MAX_VALUE = FIELD_MASK;
+
+    private int[][] chunks;
+    /* One more than the largest position that has been put. */
+    private int limit;
+    /* The cells read from the disk cache, indexed by position, or null. */
+    private IntBuffer backingCells;
+    /* The positions from it are hidden in the backing cells. */
+    private int backingLimit;
+
+    public PlacementTable(){
+        chunks = new int[4][];
+    }
+
+    /**
+     * Pack the three values into a cell.
+     * @param widthNum
+     * @param heightNum
+     * @param startSpan
+     * @return
+     */
+    public static int makeCell(int widthNum, int heightNum, int startSpan){
+        return (widthNum & FIELD_MASK) << WIDTH_SHIFT
+                | (heightNum & FIELD_MASK) << HEIGHT_SHIFT
+                | (startSpan & FIELD_MASK) << START_SPAN_SHIFT;
+    }
+
+    public static int getWidthNum(int cell){
+        return (cell >>> WIDTH_SHIFT) & FIELD_MASK;
+    }
+
+    public static int getHeightNum(int cell){
+        return (cell >>> HEIGHT_SHIFT) & FIELD_MASK;
+    }
+
+    public static int getStartSpan(int cell){
+        return (cell >>> START_SPAN_SHIFT) & FIELD_MASK;
+    }
+
+    /**
+     * Check a size from the SpanSizeLookup. A widthNum larger than the span count is valid,
+     * it is shrunk to fit the spans.
+     * @param widthNum
+     * @param heightNum
+     * @return true if an item of the size can be placed.
+     */
+    public static boolean isValidSize(int widthNum, int heightNum){
+        return widthNum >= 1 && heightNum >= 1 && heightNum <= MAX_VALUE;
+    }
+
+    /**
+     * @param position
+     * @return The cell of the position, or 0 if it is not in the table.
+     */
+    public int get(int position){
+        int chunkIndex = position >>> CHUNK_SHIFT;
+        if(position < 0)
+            return 0;
+        if(chunkIndex < chunks.length && chunks[chunkIndex] != null){
+            int cell = chunks[chunkIndex][position & CHUNK_MASK];
+            if(cell != 0)
+                return cell;
+        }
+        return position < backingLimit ? backingCells.get(position) : 0;
+    }
+
+    /**
+     * Use the cells as the backing cells, e.g., the cells mapped from a disk cache.
+     * The positions which have been put are still read from the table.
+     * @param cells The cell of each position from index 0, or null to remove the backing cells.
+     */
+    public void setBackingCells(IntBuffer cells){
+        setBackingCells(cells, cells == null ? 0 : cells.limit());
+    }
+
+    /**
+     * Use the first cells of the buffer as the backing cells,
+     * so a buffer which is filled gradually is not wrapped again for each part.
+     * @param cells The cell of each position from index 0, or null to remove the backing cells.
+     * @param limit The number of cells to be read.
+     */
+    public void setBackingCells(IntBuffer cells, int limit){
+        backingCells = cells;
+        backingLimit = cells == null ? 0 : limit;
+    }
+
+    public boolean contains(int position){
+        return get(position) != 0;
+    }
+
+    public void put(int position, int widthNum, int heightNum, int startSpan){
+        if(widthNum < 1 || widthNum > MAX_VALUE || heightNum < 1 || heightNum > MAX_VALUE
+                || startSpan < 0 || startSpan > MAX_VALUE)
+            throw new IllegalArgumentException("Invalid placement " + widthNum + "x" + heightNum
+                    + " at span " + startSpan);
+        putCell(position, makeCell(widthNum, heightNum, startSpan));
+    }
+
+    /**
+     * @return One more than the largest position read from the backing cells.
+     */
+    public int getBackingLimit(){
+        return backingLimit;
+    }
+
+    /**
+     * Put a cell, e.g., one read from another table.
+     * @param position
+     * @param cell A cell made by makeCell(), or 0 to remove the position.
+     */
+    public void putCell(int position, int cell){
+        // The backing cells cannot be removed one by one,
+        // so hide all of them from the position, which depend on the removed one anyway.
+        if(cell == 0 && position < backingLimit)
+            backingLimit = Math.max(0, position);
+        int chunkIndex = position >>> CHUNK_SHIFT;
+        if(chunkIndex >= chunks.length){
+            if(cell == 0)
+                return;
+            chunks = Arrays.copyOf(chunks, Math.max(chunks.length * 2, chunkIndex + 1));
+        }
+        int[] chunk = chunks[chunkIndex];
+        if(chunk == null){
+            if(cell == 0)
+                return;
+            chunk = new int[CHUNK_SIZE];
+            chunks[chunkIndex] = chunk;
+        }
+        chunk[position & CHUNK_MASK] = cell;
+        if(cell != 0 && position >= limit)
+            limit = position + 1;
+    }
+
+    public void remove(int position){
+        putCell(position, 0);
+    }
+
+    /**
+     * Remove all positions from the given one.
+     * @param position inclusive
+     */
+    public void removeFrom(int position){
+        if(position < backingLimit)
+            backingLimit = Math.max(0, position);
+        if(position >= limit)
+            return;
+        position = Math.max(0, position);
+        int chunkIndex = position >>> CHUNK_SHIFT;
+        if(chunks[chunkIndex] != null)
+            Arrays.fill(chunks[chunkIndex], position & CHUNK_MASK, CHUNK_SIZE, 0);
+        int lastChunkIndex = (limit - 1) >>> CHUNK_SHIFT;
+        for(int i = chunkIndex + 1; i <= lastChunkIndex; i++){
+            chunks[i] = null;
+        }
+        limit = position;
+    }
+
+    public void clear(){
+        Arrays.fill(chunks, null);
+        limit = 0;
+        setBackingCells(null);
+    }
+
+    /**
+     * @return One more than the largest position that may be in the table.
+     */
+    public int getLimit(){
+        return Math.max(limit, backingLimit);
+    }
+}
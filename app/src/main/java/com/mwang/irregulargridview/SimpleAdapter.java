@@ -12,6 +12,8 @@ import java.util.ArrayList;
 
 public class SimpleAdapter extends BaseAdapter{
 
+    private static final int LAYOUT_KIND = 1;
+
     private ArrayList<String> mDataSet;
     private ArrayList<Integer> widthNums;
     private ArrayList<Integer> heightNums;
@@ -43,6 +45,21 @@ public class SimpleAdapter extends BaseAdapter{
         return mDataSet.size();
     }
 
+    @Override
+    protected int getLayoutKind(){
+        return LAYOUT_KIND;
+    }
+
+    @Override
+    protected int getItemWidthNum(int position){
+        return widthNums.get(position);
+    }
+
+    @Override
+    protected int getItemHeightNum(int position){
+        return heightNums.get(position);
+    }
+
     public static class MyViewHolder extends BaseAdapter.VH {
         public TextView tv;
         public ImageView checkImage;
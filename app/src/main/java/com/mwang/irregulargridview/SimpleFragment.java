@@ -39,7 +39,20 @@ public class SimpleFragment extends BaseFragment {
         mGridView = (RecyclerView)view.findViewById(R.id.irregular_gridview);
         //mGridView.setLayoutManager(new GridLayoutManager(getContext(), 4));
         IrregularLayoutManager layoutManager = new IrregularLayoutManager(getContext(), 4);
+        // The sizes are known without binding, so the layout manager can place items ahead.
+        layoutManager.setSpanSizeLookup(new SpanSizeLookup() {
+            @Override
+            public int getWidthNum(int position) {
+                return widthNums.get(position);
+            }
+
+            @Override
+            public int getHeightNum(int position) {
+                return heightNums.get(position);
+            }
+        });
         mGridView.setLayoutManager(layoutManager);
+        getSharedViewPool().attach(mGridView, layoutManager);
 
         mAdapter = new SimpleAdapter(getContext(), mGridView, mStringData, widthNums, heightNums);
         mAdapter.setOnItemClickLitener(new BaseAdapter.OnItemClickLitener() {
@@ -78,7 +91,10 @@ public class SimpleFragment extends BaseFragment {
         for(int i = 0; i < mStringData.size(); i++){
             int widthNum, heightNum;
             int nextInt = r.nextInt(100);
-            if (nextInt > 80) {
+            if (nextInt > 95) {
+                widthNum = 3;
+                heightNum = 3;
+            } else if (nextInt > 80) {
                 widthNum = 2;
                 heightNum = 2;
             } else if (nextInt > 60) {
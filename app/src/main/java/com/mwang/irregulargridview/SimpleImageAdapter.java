@@ -12,15 +12,29 @@ import android.widget.ImageView;
 import com.bumptech.glide.Glide;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class SimpleImageAdapter extends BaseAdapter{
 
+    private static final int LAYOUT_KIND = 2;
+
     private int sizePerSpan;
     private ArrayList<String> mImageDataPath;
-
-    public SimpleImageAdapter(Context context, RecyclerView rec, ArrayList<String> arr){
+    /* The view type of each image path, calculated when the images are loaded. */
+    private HashMap<String, Integer> viewTypes;
+
+    /**
+     * @param context
+     * @param rec
+     * @param arr The paths of the images.
+     * @param types The view type of each path, see calculateViewType().
+     *              The images without it are laid out as 1x1.
+     */
+    public SimpleImageAdapter(Context context, RecyclerView rec, ArrayList<String> arr,
+                              HashMap<String, Integer> types){
         super(context, rec);
         mImageDataPath = arr;
+        viewTypes = types;
     }
 
     @Override
@@ -33,7 +47,7 @@ public class SimpleImageAdapter extends BaseAdapter{
     @Override
     public void onBindViewHolder(final VH holder, int position){
 
-        IrregularLayoutManager.LayoutParams lp = setViewParams(mImageDataPath.get(position),
+        IrregularLayoutManager.LayoutParams lp = setViewParams(holder.getItemViewType(),
                 holder.itemView);
 
         if(sizePerSpan == 0){
@@ -55,6 +69,32 @@ public class SimpleImageAdapter extends BaseAdapter{
         return mImageDataPath.size();
     }
 
+    /**
+     * It is called during the layout, so it only reads the view types in memory.
+     * @param position
+     * @return
+     */
+    @Override
+    public int getItemViewType(int position){
+        Integer viewType = viewTypes.get(mImageDataPath.get(position));
+        return viewType != null ? viewType : makeViewType(LAYOUT_KIND, 1, 1);
+    }
+
+    @Override
+    protected int getLayoutKind(){
+        return LAYOUT_KIND;
+    }
+
+    @Override
+    protected int getItemWidthNum(int position){
+        return getWidthNum(getItemViewType(position));
+    }
+
+    @Override
+    protected int getItemHeightNum(int position){
+        return getHeightNum(getItemViewType(position));
+    }
+
     public static class MyViewHolder extends BaseAdapter.VH {
         public ImageView photo;
         public ImageView checkImage;
@@ -77,12 +117,33 @@ public class SimpleImageAdapter extends BaseAdapter{
         ((MyViewHolder)holder).photo.clearColorFilter();
     }
 
-    private IrregularLayoutManager.LayoutParams setViewParams(String path, View view){
+    private IrregularLayoutManager.LayoutParams setViewParams(int viewType, View view){
+        IrregularLayoutManager.LayoutParams lp = (IrregularLayoutManager.LayoutParams)view.getLayoutParams();
+        lp.widthNum = getWidthNum(viewType);
+        lp.heightNum = getHeightNum(viewType);
+        return lp;
+    }
+
+    /**
+     * Calculate the size class of the image from the bounds in the file,
+     * for the images whose size is unknown to the MediaStore. It reads the file.
+     * @param path
+     * @return The view type.
+     */
+    public static int calculateViewType(String path){
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(path, options);
-        int imageHeight = options.outHeight;
-        int imageWidth = options.outWidth;
+        return calculateViewType(options.outWidth, options.outHeight);
+    }
+
+    /**
+     * Calculate the size class of the image from its size.
+     * @param imageWidth
+     * @param imageHeight
+     * @return The view type.
+     */
+    public static int calculateViewType(int imageWidth, int imageHeight){
         int widthNum = 1, heightNum = 1;
         if(imageWidth >= 1200 && imageHeight >= 1200){
             widthNum = 2;
@@ -92,10 +153,7 @@ public class SimpleImageAdapter extends BaseAdapter{
         }else if(imageHeight >= imageWidth * 1.3){
             heightNum = 2;
         }
-        IrregularLayoutManager.LayoutParams lp = (IrregularLayoutManager.LayoutParams)view.getLayoutParams();
-        lp.widthNum = widthNum;
-        lp.heightNum = heightNum;
-        return lp;
+        return makeViewType(LAYOUT_KIND, widthNum, heightNum);
     }
 
 }
@@ -3,14 +3,18 @@ package com.mwang.irregulargridview;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Point;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.MediaStore;
 import android.support.v4.app.Fragment;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.view.ActionMode;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -22,12 +26,20 @@ import android.view.WindowManager;
 import com.bumptech.glide.Glide;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class SimpleImageFragment extends BaseFragment{
 
+    private static final String TAG = "SimpleImageFragment";
+
     private RecyclerView mGridView;
+    private JankMonitor mJankMonitor;
     private ArrayList<String> mImageDataPath;
+    /* The view type of each image, calculated when it is loaded instead of during the layout. */
+    private HashMap<String, Integer> mImageViewTypes;
     private SimpleImageAdapter mImageAdapter;
+    /* Reads the sizes which are not in the MediaStore from the files, or null. */
+    private ViewTypeTask mViewTypeTask;
 
     public SimpleImageFragment() {
         // Required empty public constructor
@@ -48,9 +60,29 @@ public class SimpleImageFragment extends BaseFragment{
         mGridView = (RecyclerView)view.findViewById(R.id.irregular_gridview);
 
         IrregularLayoutManager layoutManager = new IrregularLayoutManager(getContext(), 4);
-        mGridView.setLayoutManager(layoutManager);
+        // The tiles of a size are the same however they are bound, only the images differ.
+        layoutManager.setItemMeasureCacheEnabled(true);
+        // The sizes are in the view types, so the layout manager can place items ahead.
+        layoutManager.setSpanSizeLookup(new SpanSizeLookup() {
+            @Override
+            public int getWidthNum(int position) {
+                return mImageAdapter.getItemWidthNum(position);
+            }
 
-        mImageAdapter = new SimpleImageAdapter(getContext(), mGridView, mImageDataPath);
+            @Override
+            public int getHeightNum(int position) {
+                return mImageAdapter.getItemHeightNum(position);
+            }
+        });
+        mGridView.setLayoutManager(layoutManager);
+        getSharedViewPool().attach(mGridView, layoutManager);
+        new FastScroller(mGridView, layoutManager,
+                getResources().getDimensionPixelSize(R.dimen.fast_scroller_thumb_width),
+                getResources().getDimensionPixelSize(R.dimen.fast_scroller_thumb_height),
+                ContextCompat.getColor(getContext(), R.color.colorAccent));
+
+        mImageAdapter = new SimpleImageAdapter(getContext(), mGridView, mImageDataPath,
+                mImageViewTypes);
         mImageAdapter.setOnItemClickLitener(new BaseAdapter.OnItemClickLitener() {
             @Override
             public void onItemClick(BaseAdapter.VH holder, int position) {
@@ -71,30 +103,88 @@ public class SimpleImageFragment extends BaseFragment{
         mGridView.setAdapter(mImageAdapter);
 
         mGridView.setItemAnimator(new DynamicItemAnimator());
+        // Log the frames of each scroll or animation session in the debug builds only.
+        if(BuildConfig.DEBUG){
+            mJankMonitor = new JankMonitor(mGridView, new JankMonitor.OnSessionListener() {
+                @Override
+                public void onSession(FrameStats stats, int spanCount, int itemCount) {
+                    Log.d(TAG, "Frames " + stats.getFrameCount()
+                            + ", dropped " + stats.getDroppedFrameCount()
+                            + ", p50 " + stats.getPercentileNanos(50) / 1000000f
+                            + "ms, p99 " + stats.getPercentileNanos(99) / 1000000f
+                            + "ms, worst " + stats.getWorstFrameNanos() / 1000000f
+                            + "ms, spans " + spanCount + ", items " + itemCount);
+                }
+            });
+        }
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        if(mJankMonitor != null){
+            mJankMonitor.detach();
+            mJankMonitor = null;
+        }
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDestroy() {
+        if(mViewTypeTask != null){
+            mViewTypeTask.cancel(true);
+            mViewTypeTask = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void initData(){
         mImageDataPath = new ArrayList<>();
+        mImageViewTypes = new HashMap<>();
+        ArrayList<String> unknownPaths = new ArrayList<>();
 
         String picFolder = Environment.getExternalStoragePublicDirectory(
                 Environment.DIRECTORY_PICTURES).getAbsolutePath();
-        String[] proj = {MediaStore.Images.Media.DATA};
+        // The sizes of the images are in the MediaStore since API 16.
+        final boolean hasSize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+        String[] proj = hasSize
+                ? new String[]{MediaStore.Images.Media.DATA, MediaStore.Images.Media.WIDTH,
+                        MediaStore.Images.Media.HEIGHT}
+                : new String[]{MediaStore.Images.Media.DATA};
         Cursor cursor = MediaStore.Images.Media.query(getContext().getContentResolver(),
                 MediaStore.Images.Media.EXTERNAL_CONTENT_URI, proj,
                 "", null, MediaStore.Images.Media.DATE_TAKEN + " DESC");
         if(cursor != null){
             int dataColumn = cursor.getColumnIndex(MediaStore.Images.Media.DATA);
+            int widthColumn = -1, heightColumn = -1;
+            if(hasSize){
+                widthColumn = cursor.getColumnIndex(MediaStore.Images.Media.WIDTH);
+                heightColumn = cursor.getColumnIndex(MediaStore.Images.Media.HEIGHT);
+            }
             while(cursor.moveToNext()){
                 String path = cursor.getString(dataColumn);
                 if(path != null && path.startsWith(picFolder)){
                     mImageDataPath.add(path);
+                    int width = widthColumn != -1 ? cursor.getInt(widthColumn) : 0;
+                    int height = heightColumn != -1 ? cursor.getInt(heightColumn) : 0;
+                    // The size may not be scanned yet, read it from the file in the background,
+                    // the image is laid out as 1x1 until then.
+                    if(width > 0 && height > 0){
+                        mImageViewTypes.put(path,
+                                SimpleImageAdapter.calculateViewType(width, height));
+                    }else{
+                        unknownPaths.add(path);
+                    }
                 }
             }
         }
         cursor.close();
+        if(!unknownPaths.isEmpty()){
+            mViewTypeTask = new ViewTypeTask(unknownPaths);
+            mViewTypeTask.execute();
+        }
     }
 
     @Override
@@ -112,5 +202,45 @@ public class SimpleImageFragment extends BaseFragment{
         mImageAdapter.resetSelectedItems();
     }
 
+    /**
+     * Calculate the view types of the images from the files, which decodes the bounds,
+     * so it is not done on the main thread. The view types are only changed
+     * on the main thread, since the layout reads them.
+     */
+    private class ViewTypeTask extends AsyncTask<Void, Void, HashMap<String, Integer>>{
+
+        private final ArrayList<String> paths;
+
+        ViewTypeTask(ArrayList<String> paths){
+            this.paths = paths;
+        }
+
+        @Override
+        protected HashMap<String, Integer> doInBackground(Void... params){
+            HashMap<String, Integer> viewTypes = new HashMap<>();
+            for(String path : paths){
+                if(isCancelled())
+                    break;
+                viewTypes.put(path, SimpleImageAdapter.calculateViewType(path));
+            }
+            return viewTypes;
+        }
+
+        @Override
+        protected void onPostExecute(HashMap<String, Integer> viewTypes){
+            mViewTypeTask = null;
+            mImageViewTypes.putAll(viewTypes);
+            // The adapter is created later if the view is not created yet.
+            if(mImageAdapter == null)
+                return;
+            // Some images may be deleted, so find the positions again.
+            for(int i = 0; i < mImageDataPath.size(); i++){
+                if(viewTypes.containsKey(mImageDataPath.get(i))){
+                    mImageAdapter.notifyItemChanged(i);
+                }
+            }
+        }
+    }
+
 }
 
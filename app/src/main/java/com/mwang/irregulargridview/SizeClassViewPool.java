@@ -0,0 +1,83 @@
+package com.mwang.irregulargridview;
+
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseIntArray;
+import android.view.View;
+
+/**
+ * A RecycledViewPool for the view types made by BaseAdapter.makeViewType(),
+ * which can be shared by the grids of several screens.
+ * The capacity of each type is the number of its items which fit in the viewport
+ * of the IrregularLayoutManager, instead of 5 for all types, so the large items
+ * do not take the place of the small ones and the small ones are not dropped
+ * when a screen of them is recycled.
+ */
+public class SizeClassViewPool extends RecyclerView.RecycledViewPool {
+
+    /* The capacity of RecycledViewPool, used before the viewport is known. */
+    private static final int DEFAULT_CAPACITY = 5;
+
+    /* The capacity of each view type put into the pool. */
+    private final SparseIntArray capacities = new SparseIntArray();
+    private int spanCount;
+    private int sizePerSpan;
+    private int viewportHeight;
+
+    /**
+     * Use the pool for the RecyclerView, and update the capacities
+     * whenever it is laid out with another size.
+     * @param recyclerView
+     * @param layoutManager The layout manager of the recyclerView.
+     */
+    public void attach(RecyclerView recyclerView, final IrregularLayoutManager layoutManager){
+        recyclerView.setRecycledViewPool(this);
+        recyclerView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                updateCapacities(layoutManager);
+            }
+        });
+    }
+
+    /**
+     * Calculate the capacities from the span count and the viewport of the layout manager.
+     * @param layoutManager
+     */
+    public void updateCapacities(IrregularLayoutManager layoutManager){
+        final int height = layoutManager.getHeight() - layoutManager.getPaddingTop()
+                - layoutManager.getPaddingBottom();
+        if(layoutManager.getSpanCount() == spanCount
+                && layoutManager.getSizePerSpan() == sizePerSpan && height == viewportHeight)
+            return;
+        spanCount = layoutManager.getSpanCount();
+        sizePerSpan = layoutManager.getSizePerSpan();
+        viewportHeight = height;
+        for(int i = 0; i < capacities.size(); i++){
+            setCapacity(capacities.keyAt(i));
+        }
+    }
+
+    @Override
+    public void putRecycledView(RecyclerView.ViewHolder scrap){
+        final int viewType = scrap.getItemViewType();
+        if(capacities.indexOfKey(viewType) < 0)
+            setCapacity(viewType);
+        super.putRecycledView(scrap);
+    }
+
+    private void setCapacity(int viewType){
+        int capacity = DEFAULT_CAPACITY;
+        if(sizePerSpan > 0 && viewportHeight > 0){
+            final int widthNum = BaseAdapter.getWidthNum(viewType);
+            final int heightNum = BaseAdapter.getHeightNum(viewType);
+            // The items of the type in one row, and the rows in the viewport,
+            // including the ones partly visible at both ends.
+            final int columns = Math.max(1, spanCount / Math.max(1, widthNum));
+            final int rows = viewportHeight / (sizePerSpan * Math.max(1, heightNum)) + 2;
+            capacity = columns * rows;
+        }
+        capacities.put(viewType, capacity);
+        setMaxRecycledViews(viewType, capacity);
+    }
+}
@@ -0,0 +1,233 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+
+/**
+ * Checkpoints of the span skyline, one every interval items.
+ * The checkpoint of position p stores the spans after items 0 to p - 1 are laid out,
+ * so the skyline before any position can be restored from the nearest checkpoint
+ * by packing at most interval - 1 items, instead of replaying from the first item.
+ *
+ * The spans are stored in the number of spans from the top of the first item,
+ * i.e., (span - origin) / unit, so the checkpoints do not depend on the scroll offset.
+ * Checkpoints are only added in order, so they always cover a prefix of the items,
+ * except after copyFrom() with only the last checkpoints of a saved state.
+ *
+ * The height of each checkpoint, i.e., its largest span, is kept as well,
+ * so the height of the items before a checkpoint is read in O(1), e.g., for the scrollbar.
+ */
+public class SkylineCheckpoints {
+
+    /* Default number of items between two checkpoints. */
+    public static final int DEFAULT_INTERVAL = 64;
+
+    private final int mSpanCount;
+    private final int mInterval;
+    /* The spans of checkpoint k are stored from index (k - first) * mSpanCount. */
+    private int[] values;
+    /* The largest span of checkpoint k is stored at index k - first. */
+    private int[] heights;
+    /* The index of the first checkpoint we have. */
+    private int first;
+    /* One more than the index of the last checkpoint, i.e., position (count - 1) * mInterval. */
+    private int count;
+    /* Used to restore a checkpoint without allocations. */
+    private final int[] row;
+
+    public SkylineCheckpoints(int spanCount){
+        this(spanCount, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param spanCount The number of spans.
+     * @param interval The number of items between two checkpoints.
+     */
+    public SkylineCheckpoints(int spanCount, int interval){
+        if(interval < 1)
+            throw new IllegalArgumentException("Interval should be at least 1. Provided "
+                    + interval);
+        mSpanCount = spanCount;
+        mInterval = interval;
+        values = new int[spanCount * 16];
+        heights = new int[16];
+        row = new int[spanCount];
+    }
+
+    public int getInterval(){
+        return mInterval;
+    }
+
+    /**
+     * @param position
+     * @return true if there should be a checkpoint for the position.
+     */
+    public boolean isCheckpoint(int position){
+        return position % mInterval == 0;
+    }
+
+    /**
+     * @return The number of checkpoints, including the missing ones before the first one.
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * @return One more than the last position we can restore directly,
+     * i.e., the position of the last checkpoint plus one, or 0 if there are no checkpoints.
+     */
+    public int getLimit(){
+        return count == 0 ? 0 : (count - 1) * mInterval + 1;
+    }
+
+    /**
+     * @param index The index of the checkpoint, from getFirst() to getCount() - 1.
+     * @param spanIndex
+     * @return The span of the checkpoint, in the number of spans.
+     */
+    public int get(int index, int spanIndex){
+        return values[(index - first) * mSpanCount + spanIndex];
+    }
+
+    /**
+     * @param index The index of the checkpoint, from getFirst() to getCount() - 1.
+     * @return The smallest span of the checkpoint, i.e., the top of the item at it,
+     * in the number of spans.
+     */
+    public int getTop(int index){
+        final int start = (index - first) * mSpanCount;
+        int top = values[start];
+        for(int i = start + 1; i < start + mSpanCount; i++){
+            top = Math.min(top, values[i]);
+        }
+        return top;
+    }
+
+    /**
+     * @param index The index of the checkpoint, from getFirst() to getCount() - 1.
+     * @return The largest span of the checkpoint, i.e., the height of the items before it,
+     * in the number of spans.
+     */
+    public int getHeight(int index){
+        return heights[index - first];
+    }
+
+    /**
+     * Store the spans before the position. Nothing happens if the position is not a checkpoint,
+     * it is already stored, or the previous checkpoint is missing.
+     * @param position
+     * @param spans The spans after items 0 to position - 1 are laid out.
+     * @param origin The top of the first item in the same coordinates as spans.
+     * @param unit The size of one span, i.e., sizePerSpan.
+     */
+    public void put(int position, SpanPacker spans, int origin, int unit){
+        if(position % mInterval != 0 || position / mInterval != count)
+            return;
+        int index = (count - first) * mSpanCount;
+        if(index + mSpanCount > values.length){
+            values = Arrays.copyOf(values, values.length * 2);
+            heights = Arrays.copyOf(heights, heights.length * 2);
+        }
+        for(int i = 0; i < mSpanCount; i++){
+            values[index + i] = (spans.get(i) - origin) / unit;
+        }
+        heights[count - first] = (spans.getMax() - origin) / unit;
+        count++;
+    }
+
+    /**
+     * Restore the nearest checkpoint at or before the position.
+     * If there are no such checkpoints, spans are reset to origin,
+     * which is the checkpoint of position 0.
+     * @param position
+     * @param spans Receives the spans.
+     * @param origin The top of the first item in the coordinates of spans.
+     * @param unit The size of one span, i.e., sizePerSpan.
+     * @return The position of the restored checkpoint.
+     */
+    public int restore(int position, SpanPacker spans, int origin, int unit){
+        int k = Math.min(position / mInterval, count - 1);
+        if(k < first){
+            spans.reset(origin);
+            return 0;
+        }
+        int index = (k - first) * mSpanCount;
+        for(int i = 0; i < mSpanCount; i++){
+            row[i] = values[index + i] * unit + origin;
+        }
+        spans.copyFrom(row);
+        return k * mInterval;
+    }
+
+    /**
+     * Remove the checkpoints which depend on the position,
+     * i.e., the ones after the position. It is called when the item changes.
+     * @param position
+     */
+    public void removeAfter(int position){
+        count = Math.min(count, Math.max(0, position) / mInterval + 1);
+        if(count <= first){
+            clear();
+        }
+    }
+
+    public void clear(){
+        first = 0;
+        count = 0;
+    }
+
+    /**
+     * Copy the checkpoints, e.g., to save them.
+     * @param from The index of the first checkpoint to be copied,
+     *             it should be at least the first one we have.
+     * @param to The index of the last checkpoint to be copied, exclusive.
+     * @return The spans of the checkpoints in order.
+     */
+    public int[] toArray(int from, int to){
+        return Arrays.copyOfRange(values, (from - first) * mSpanCount, (to - first) * mSpanCount);
+    }
+
+    /**
+     * Replace all checkpoints with the copied ones.
+     * @param from The index of the first copied checkpoint.
+     * @param source The array returned by toArray().
+     */
+    public void copyFrom(int from, int[] source){
+        copyFrom(from, source, source.length);
+    }
+
+    /**
+     * Replace all checkpoints with the first copied ones, without copying the array first.
+     * @param from The index of the first copied checkpoint.
+     * @param source The spans of the checkpoints in order.
+     * @param length The number of values to be copied, a multiple of the span count.
+     */
+    public void copyFrom(int from, int[] source, int length){
+        if(length == 0){
+            clear();
+            return;
+        }
+        final int n = length / mSpanCount;
+        if(length > values.length){
+            values = new int[length];
+            heights = new int[n];
+        }
+        System.arraycopy(source, 0, values, 0, length);
+        for(int k = 0; k < n; k++){
+            int height = 0;
+            for(int i = k * mSpanCount; i < (k + 1) * mSpanCount; i++){
+                height = Math.max(height, values[i]);
+            }
+            heights[k] = height;
+        }
+        first = from;
+        count = from + n;
+    }
+
+    /**
+     * @return The index of the first checkpoint we have.
+     */
+    public int getFirst(){
+        return first;
+    }
+}
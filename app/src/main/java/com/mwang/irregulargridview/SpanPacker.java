@@ -0,0 +1,346 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+
+/**
+ * The span packing engine of the IrregularLayoutManager.
+ * It does not depend on the Android framework, so it can be used on a plain JVM,
+ * e.g., in unit tests, benchmarks or on background threads.
+ *
+ * It stores the skyline of the grid, i.e., one value for each span,
+ * and decides where the next item goes.
+ * The IrregularLayoutManager keeps one packer for the bottom of the spans
+ * and one for the top of the spans.
+ *
+ * The skyline is tracked incrementally. Besides the minimum and the maximum,
+ * we keep a bitmask of the spans which are the minimum and one of the spans which are the maximum.
+ * Changing a few spans only updates their bits, and the spans are rescanned only when
+ * the last span of the minimum (or the maximum) is changed, i.e., about once per row.
+ * The first N adjacent minimum spans are found with a few bit operations on the mask.
+ *
+ * An item of any size WxH is placed at the minimum of the spans, on the first W adjacent
+ * minimum spans. If there are no such spans, it is shrunk to the longest run of them,
+ * so a 3x3 item may take 2 or 1 spans, the same as a 2x2 item may take 1 span.
+ */
+public class SpanPacker {
+
+    /* The largest number of spans, limited by the bitmasks. */
+    public static final int MAX_SPAN_COUNT = 64;
+
+    /* The number of spans. */
+    private final int mSpanCount;
+    /* The value of each span, without the base. */
+    private final int[] spans;
+    /* Added to every span, so that offset() is O(1). */
+    private int base;
+    /* The minimum of the spans, without the base. */
+    private int spanMin;
+    /* The maximum of the spans, without the base. */
+    private int spanMax;
+    /* Bit i is set if spans[i] is spanMin. */
+    private long minMask;
+    /* Bit i is set if spans[i] is spanMax. */
+    private long maxMask;
+
+    /**
+     * @param spanCount The number of spans, from 2 to MAX_SPAN_COUNT.
+     */
+    public SpanPacker(int spanCount){
+        if(spanCount < 2 || spanCount > MAX_SPAN_COUNT)
+            throw new IllegalArgumentException("Span count should be between 2 and "
+                    + MAX_SPAN_COUNT + ". Provided " + spanCount);
+        mSpanCount = spanCount;
+        spans = new int[spanCount];
+        reset(0);
+    }
+
+    /**
+     * Copy constructor.
+     * @param source
+     */
+    public SpanPacker(SpanPacker source){
+        mSpanCount = source.mSpanCount;
+        spans = new int[mSpanCount];
+        copyFrom(source);
+    }
+
+    public int getSpanCount(){
+        return mSpanCount;
+    }
+
+    /**
+     * Set all spans to the same value.
+     * @param value
+     */
+    public void reset(int value){
+        Arrays.fill(spans, 0);
+        base = value;
+        spanMin = 0;
+        spanMax = 0;
+        minMask = spanBits(0, mSpanCount);
+        maxMask = minMask;
+    }
+
+    /**
+     * Copy the spans from another packer with the same span count.
+     * @param source
+     */
+    public void copyFrom(SpanPacker source){
+        System.arraycopy(source.spans, 0, spans, 0, mSpanCount);
+        base = source.base;
+        spanMin = source.spanMin;
+        spanMax = source.spanMax;
+        minMask = source.minMask;
+        maxMask = source.maxMask;
+    }
+
+    /**
+     * Copy the spans from an array.
+     * @param source The array, whose length should be at least the span count.
+     */
+    public void copyFrom(int[] source){
+        System.arraycopy(source, 0, spans, 0, mSpanCount);
+        base = 0;
+        rescanMin();
+        rescanMax();
+    }
+
+    /**
+     * Copy the spans into an array.
+     * @param dest The array, whose length should be at least the span count.
+     */
+    public void copyTo(int[] dest){
+        for(int i = 0; i < mSpanCount; i++)
+            dest[i] = spans[i] + base;
+    }
+
+    public int get(int spanIndex){
+        return spans[spanIndex] + base;
+    }
+
+    public int getMin(){
+        return spanMin + base;
+    }
+
+    public int getMax(){
+        return spanMax + base;
+    }
+
+    public int getFirstOneEmptySpanIndex(){
+        return Long.numberOfTrailingZeros(minMask);
+    }
+
+    /**
+     * @return The first span index where the first and the second span are both the minimum,
+     * or -1 if there are no such spans.
+     */
+    public int getFirstTwoEmptySpanIndex(){
+        return findFirstEmptySpans(2);
+    }
+
+    /**
+     * Find the first n adjacent spans which are all the minimum.
+     * @param n
+     * @return The index of the first of them, or -1 if there are no such spans.
+     */
+    public int findFirstEmptySpans(int n){
+        long mask = minMask;
+        for(int k = 1; k < n && mask != 0; k++)
+            mask &= minMask >>> k;
+        return mask == 0 ? -1 : Long.numberOfTrailingZeros(mask);
+    }
+
+    /**
+     * Calculate the number of spans the next item finally takes.
+     * If there are no widthNum sequential empty spans, it is shrunk to the longest run of them,
+     * e.g., widthNum = 2 is shrunk to 1.
+     * @param widthNum The preferred number of spans in the horizontal direction.
+     * @return
+     */
+    public int fitWidth(int widthNum){
+        if(widthNum <= 1)
+            return 1;
+        // Bit i of mask is set if spans i to i + fit - 1 are all the minimum.
+        long mask = minMask;
+        int fit = 1;
+        while(fit < widthNum){
+            long next = mask & (minMask >>> fit);
+            if(next == 0)
+                break;
+            mask = next;
+            fit++;
+        }
+        return fit;
+    }
+
+    /**
+     * Calculate the index of the first span occupied by the next item.
+     * @param widthNum The number of spans the item takes, see fitWidth().
+     * @return
+     */
+    public int findStartSpan(int widthNum){
+        return widthNum == 1 ? Long.numberOfTrailingZeros(minMask) : findFirstEmptySpans(widthNum);
+    }
+
+    /**
+     * Add delta to the spans occupied by an item.
+     * @param startSpan The first span index the item occupied.
+     * @param widthNum The number of spans the item occupied.
+     * @param delta
+     */
+    public void add(int startSpan, int widthNum, int delta){
+        if(widthNum <= 0 || delta == 0)
+            return;
+        final int end = startSpan + widthNum;
+        final long bits = spanBits(startSpan, widthNum);
+        for(int i = startSpan; i < end; i++)
+            spans[i] += delta;
+        if(delta > 0){
+            // The spans can only leave the minimum and may become the new maximum.
+            if((minMask & bits) != 0){
+                minMask &= ~bits;
+                if(minMask == 0)
+                    rescanMin();
+            }
+            for(int i = startSpan; i < end; i++){
+                if(spans[i] > spanMax){
+                    spanMax = spans[i];
+                    maxMask = 1L << i;
+                }else if(spans[i] == spanMax){
+                    maxMask |= 1L << i;
+                }
+            }
+        }else{
+            // The spans can only leave the maximum and may become the new minimum.
+            if((maxMask & bits) != 0){
+                maxMask &= ~bits;
+                if(maxMask == 0)
+                    rescanMax();
+            }
+            for(int i = startSpan; i < end; i++){
+                if(spans[i] < spanMin){
+                    spanMin = spans[i];
+                    minMask = 1L << i;
+                }else if(spans[i] == spanMin){
+                    minMask |= 1L << i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add delta to all spans, e.g., after offsetting children.
+     * @param delta
+     */
+    public void offset(int delta){
+        base += delta;
+    }
+
+    /**
+     * Pack items from the current skyline, from left to right, top to bottom.
+     * This is exactly what the IrregularLayoutManager does when it fills the bottom.
+     * @param widthNums The preferred widthNum of each item.
+     * @param heightNums The heightNum of each item.
+     * @param from The first item to be packed, inclusive.
+     * @param to The last item to be packed, exclusive.
+     * @param sizePerSpan The height of one span, use 1 to get the results in spans.
+     * @param outStartSpan Receives the first span index each item occupied.
+     * @param outWidthNum Receives the widthNum each item finally takes.
+     * @param outTop Receives the top of each item.
+     */
+    public void pack(int[] widthNums, int[] heightNums, int from, int to, int sizePerSpan,
+                     int[] outStartSpan, int[] outWidthNum, int[] outTop){
+        for(int i = from; i < to; i++){
+            int widthNum = fitWidth(widthNums[i]);
+            int startSpan = findStartSpan(widthNum);
+            outStartSpan[i] = startSpan;
+            outWidthNum[i] = widthNum;
+            outTop[i] = spanMin + base;
+            add(startSpan, widthNum, heightNums[i] * sizePerSpan);
+        }
+    }
+
+    /* Recalculate spanMin and minMask from all spans. */
+    private void rescanMin(){
+        int min = spans[0];
+        long mask = 1L;
+        for(int i = 1; i < mSpanCount; i++){
+            if(spans[i] < min){
+                min = spans[i];
+                mask = 1L << i;
+            }else if(spans[i] == min){
+                mask |= 1L << i;
+            }
+        }
+        spanMin = min;
+        minMask = mask;
+    }
+
+    /* Recalculate spanMax and maxMask from all spans. */
+    private void rescanMax(){
+        int max = spans[0];
+        long mask = 1L;
+        for(int i = 1; i < mSpanCount; i++){
+            if(spans[i] > max){
+                max = spans[i];
+                mask = 1L << i;
+            }else if(spans[i] == max){
+                mask |= 1L << i;
+            }
+        }
+        spanMax = max;
+        maxMask = mask;
+    }
+
+    /**
+     * @param startSpan
+     * @param widthNum
+     * @return The bitmask of widthNum spans from startSpan.
+     */
+    private static long spanBits(int startSpan, int widthNum){
+        long bits = widthNum >= 64 ? -1L : (1L << widthNum) - 1;
+        return bits << startSpan;
+    }
+
+    /**
+     * Calculate the number of spans an item takes according to its size.
+     * @param size The width or the height of the item.
+     * @param sizePerSpan
+     * @return From 1 to PlacementTable.MAX_VALUE.
+     */
+    public static int calculateSpanNum(int size, int sizePerSpan){
+        return Math.min(PlacementTable.MAX_VALUE, Math.max(1, size / sizePerSpan));
+    }
+
+    /**
+     * Calculate the left and right borders for each span.
+     * This is the same as calculateItemBorders(int totalSpace) in the GridLayoutManager.
+     * @param spanWidthBorders The array to receive the borders, or null.
+     * @param spanCount
+     * @param totalSpace
+     * @return spanWidthBorders, or a new array if the given one cannot be reused.
+     */
+    public static int[] calculateSpanWidthBorders(int[] spanWidthBorders, int spanCount,
+                                                  int totalSpace){
+        if(spanWidthBorders == null || spanWidthBorders.length != spanCount + 1
+                || spanWidthBorders[spanWidthBorders.length - 1] != totalSpace){
+            spanWidthBorders = new int[spanCount + 1];
+        }
+        spanWidthBorders[0] = 0;
+        int sizePerSpan = totalSpace / spanCount;
+        int sizePerSpanRemainder = totalSpace % spanCount;
+        int consumedPixels = 0;
+        int additionalSize = 0;
+        for (int i = 1; i <= spanCount; i++) {
+            int itemSize = sizePerSpan;
+            additionalSize += sizePerSpanRemainder;
+            if (additionalSize > 0 && (spanCount - additionalSize) < sizePerSpanRemainder) {
+                itemSize += 1;
+                additionalSize -= spanCount;
+            }
+            consumedPixels += itemSize;
+            spanWidthBorders[i] = consumedPixels;
+        }
+        return spanWidthBorders;
+    }
+}
@@ -0,0 +1,45 @@
+package com.mwang.irregulargridview;
+
+/**
+ * The packing steps shared by the IrregularLayoutManager and the headless model
+ * of its layout loop in the benchmarks, so that both run the same code:
+ * placing an item on a skyline and stacking a placed item on it.
+ */
+final class SpanPlacement {
+
+    private SpanPlacement(){
+    }
+
+    /**
+     * Place the item on the spans and store the placement in the table.
+     * If there are no widthNum sequential empty spans, widthNum is shrunk to fit them.
+     * @param table
+     * @param position
+     * @param widthNum
+     * @param heightNum
+     * @param spans The spans before the position, or null when filling the top,
+     *              the start span is 0 in this case.
+     * @return The cell of the placement.
+     */
+    static int place(PlacementTable table, int position, int widthNum, int heightNum,
+                     SpanPacker spans){
+        int startSpan = 0;
+        if(spans != null){
+            widthNum = spans.fitWidth(widthNum);
+            startSpan = spans.findStartSpan(widthNum);
+        }
+        table.put(position, widthNum, heightNum, startSpan);
+        return PlacementTable.makeCell(widthNum, heightNum, startSpan);
+    }
+
+    /**
+     * Add the height of the placed item to the spans it occupies.
+     * @param spans
+     * @param cell
+     * @param sizePerSpan Negative to remove the item from the top of the spans.
+     */
+    static void stack(SpanPacker spans, int cell, int sizePerSpan){
+        spans.add(PlacementTable.getStartSpan(cell), PlacementTable.getWidthNum(cell),
+                PlacementTable.getHeightNum(cell) * sizePerSpan);
+    }
+}
@@ -0,0 +1,24 @@
+package com.mwang.irregulargridview;
+
+/**
+ * Provides the number of spans each item takes, like the SpanSizeLookup of the GridLayoutManager.
+ * It should not bind views, so the IrregularLayoutManager can calculate the placements
+ * before the items are bound, e.g., for the items before a position to jump to.
+ *
+ * The sizes should be the same as the widthNum and the heightNum in the LayoutParams,
+ * which are not needed if the lookup is set.
+ */
+public abstract class SpanSizeLookup {
+
+    /**
+     * @param position The adapter position of the item.
+     * @return The number of spans the item takes in the horizontal direction.
+     */
+    public abstract int getWidthNum(int position);
+
+    /**
+     * @param position The adapter position of the item.
+     * @return The number of spans the item takes in the vertical direction.
+     */
+    public abstract int getHeightNum(int position);
+}
@@ -0,0 +1,79 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DensePacker.
+ */
+public class DensePackerTest {
+
+    @Test
+    public void place_backFillsTheHolesBelowAWideItem() throws Exception {
+        DensePacker packer = new DensePacker(3);
+        int[] widthNums = {1, 1, 2, 1, 1, 1, 1};
+        int[] heightNums = {1, 2, 1, 1, 1, 1, 1};
+        int[] startSpan = new int[7];
+        int[] widthNum = new int[7];
+        int[] row = new int[7];
+        packer.pack(widthNums, heightNums, 0, 7, startSpan, widthNum, row);
+
+        // The 2x1 item is not shrunk, it is placed below the 1x2 item.
+        assertArrayEquals(new int[]{0, 0, 2, 0, 1, 1, 2}, row);
+        assertArrayEquals(new int[]{0, 1, 0, 2, 0, 2, 2}, startSpan);
+        assertArrayEquals(new int[]{1, 1, 2, 1, 1, 1, 1}, widthNum);
+        assertEquals(3, packer.getFloor());
+        assertEquals(3, packer.getTop());
+    }
+
+    @Test
+    public void place_neverOverlaps() throws Exception {
+        final int spanCount = 6, itemCount = 2000;
+        Random r = new Random(5);
+        int[] widthNums = new int[itemCount];
+        int[] heightNums = new int[itemCount];
+        for(int i = 0; i < itemCount; i++){
+            widthNums[i] = 1 + r.nextInt(4);
+            heightNums[i] = 1 + r.nextInt(3);
+        }
+        DensePacker packer = new DensePacker(spanCount, 8);
+        int[] startSpan = new int[itemCount];
+        int[] widthNum = new int[itemCount];
+        int[] row = new int[itemCount];
+        packer.pack(widthNums, heightNums, 0, itemCount, startSpan, widthNum, row);
+
+        boolean[][] grid = new boolean[packer.getTop()][spanCount];
+        for(int i = 0; i < itemCount; i++){
+            assertEquals(widthNums[i], widthNum[i]);
+            assertTrue(startSpan[i] + widthNum[i] <= spanCount);
+            for(int y = row[i]; y < row[i] + heightNums[i]; y++){
+                for(int x = startSpan[i]; x < startSpan[i] + widthNum[i]; x++){
+                    assertFalse(grid[y][x]);
+                    grid[y][x] = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findFirstBelow_skipsTheItemsAboveTheRow() throws Exception {
+        DensePlacements placements = new DensePlacements(2);
+        // Rows 0, 0, 1, 2, 2.
+        placements.append(1, 1);
+        placements.append(1, 1);
+        placements.append(2, 1);
+        placements.append(1, 1);
+        placements.append(1, 1);
+        assertEquals(0, placements.findFirstBelow(0));
+        assertEquals(2, placements.findFirstBelow(1));
+        assertEquals(3, placements.findFirstBelow(2));
+        assertEquals(5, placements.findFirstBelow(3));
+        assertEquals(2, placements.getFloor(3));
+        placements.removeFrom(4);
+        assertEquals(0, placements.getCount());
+        assertEquals(0, placements.getHeight());
+    }
+}
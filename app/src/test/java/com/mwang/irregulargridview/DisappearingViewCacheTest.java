@@ -0,0 +1,56 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DisappearingViewCache.
+ */
+public class DisappearingViewCacheTest {
+
+    @Test
+    public void put_keepsThePositionsSorted() throws Exception {
+        DisappearingViewCache cache = new DisappearingViewCache();
+        for(int i = 0; i < 40; i++){
+            cache.put(i * 2, i, i, 0, 0, 0, 0);
+        }
+        cache.put(7, 100, 101, 1, 2, 3, 4);
+        cache.put(10, 200, 201, 5, 6, 7, 8);
+        assertEquals(41, cache.size());
+
+        // Read in descending order.
+        int previous = Integer.MAX_VALUE;
+        for(int i = cache.size() - 1; i >= 0; i--){
+            assertTrue(cache.getPosition(i) < previous);
+            previous = cache.getPosition(i);
+        }
+        int index = cache.indexOf(7);
+        assertEquals(7, cache.getPosition(index));
+        assertEquals(100, cache.getWidthSpec(index));
+        assertEquals(101, cache.getHeightSpec(index));
+        assertEquals(1, cache.getLeft(index));
+        assertEquals(2, cache.getTop(index));
+        assertEquals(3, cache.getRight(index));
+        assertEquals(4, cache.getBottom(index));
+        // Replaced, not added.
+        assertEquals(200, cache.getWidthSpec(cache.indexOf(10)));
+        assertEquals(-1, cache.indexOf(9));
+        assertEquals(-1, cache.indexOf(100));
+    }
+
+    @Test
+    public void removeAt_shiftsTheParams() throws Exception {
+        DisappearingViewCache cache = new DisappearingViewCache();
+        cache.put(1, 10, 11, 0, 0, 0, 0);
+        cache.put(2, 20, 21, 0, 0, 0, 0);
+        cache.put(3, 30, 31, 0, 0, 0, 0);
+        cache.removeAt(cache.indexOf(2));
+        assertEquals(2, cache.size());
+        assertEquals(-1, cache.indexOf(2));
+        assertEquals(30, cache.getWidthSpec(cache.indexOf(3)));
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        assertEquals(-1, cache.indexOf(1));
+    }
+}
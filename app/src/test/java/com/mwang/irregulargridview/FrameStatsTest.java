@@ -0,0 +1,54 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the FrameStats.
+ */
+public class FrameStatsTest {
+
+    private static final long INTERVAL = 16000000;
+
+    @Test
+    public void addFrame_countsDroppedAndWorstFrames() throws Exception {
+        FrameStats stats = new FrameStats(INTERVAL);
+        for(int i = 0; i < 97; i++){
+            stats.addFrame(INTERVAL);
+        }
+        // Takes two intervals, one frame is dropped.
+        stats.addFrame(INTERVAL * 2);
+        // About three intervals, two frames are dropped.
+        stats.addFrame(INTERVAL * 3 - 1000);
+        // A bit late, janky but nothing is dropped.
+        stats.addFrame(INTERVAL + 1000);
+
+        assertEquals(100, stats.getFrameCount());
+        assertEquals(3, stats.getJankyFrameCount());
+        assertEquals(3, stats.getDroppedFrameCount());
+        assertEquals(INTERVAL * 3 - 1000, stats.getWorstFrameNanos());
+        assertEquals(INTERVAL * 103, stats.getTotalNanos());
+    }
+
+    @Test
+    public void getPercentileNanos_usesTheNearestRank() throws Exception {
+        FrameStats stats = new FrameStats(INTERVAL);
+        assertEquals(0, stats.getPercentileNanos(50));
+        // Added in descending order, so they are sorted for the percentiles.
+        for(int i = 1000; i > 0; i--){
+            stats.addFrame(i);
+        }
+        assertEquals(500, stats.getPercentileNanos(50));
+        assertEquals(990, stats.getPercentileNanos(99));
+        assertEquals(1000, stats.getPercentileNanos(100));
+        assertEquals(1, stats.getPercentileNanos(0));
+        // More frames after reading a percentile.
+        stats.addFrame(5000);
+        assertEquals(5000, stats.getPercentileNanos(100));
+
+        stats.reset();
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getWorstFrameNanos());
+    }
+}
@@ -0,0 +1,155 @@
+package com.mwang.irregulargridview;
+
+import android.app.Activity;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowChoreographer;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the JankMonitor with the frames of the Robolectric Choreographer,
+ * which are posted FRAME_MILLIS apart on the main looper.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class JankMonitorTest {
+
+    private static final int FRAME_MILLIS = 16;
+    private static final int ITEM_COUNT = 100;
+
+    private Activity activity;
+    private RecyclerView recyclerView;
+    private RecyclerView.Adapter<RecyclerView.ViewHolder> adapter;
+    private final List<Integer> sessionFrameCounts = new ArrayList<>();
+    private final List<Integer> sessionItemCounts = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowChoreographer.setPostCallbackDelay(FRAME_MILLIS);
+        ShadowChoreographer.setPostFrameCallbackDelay(FRAME_MILLIS);
+        activity = Robolectric.setupActivity(Activity.class);
+        IrregularLayoutManager layoutManager = new IrregularLayoutManager(activity, 4);
+        layoutManager.setSpanSizeLookup(new SpanSizeLookup() {
+            @Override
+            public int getWidthNum(int position) {
+                return 1;
+            }
+
+            @Override
+            public int getHeightNum(int position) {
+                return 1;
+            }
+        });
+        adapter = createAdapter(ITEM_COUNT);
+        recyclerView = new RecyclerView(activity);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(adapter);
+        activity.setContentView(recyclerView, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        runFrames(5);
+        assertTrue(recyclerView.getChildCount() > 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ShadowChoreographer.setPostCallbackDelay(0);
+        ShadowChoreographer.setPostFrameCallbackDelay(0);
+    }
+
+    @Test
+    public void itemChange_reportsTheSessionOfTheAnimation() throws Exception {
+        JankMonitor monitor = new JankMonitor(recyclerView, new JankMonitor.OnSessionListener() {
+            @Override
+            public void onSession(FrameStats stats, int spanCount, int itemCount) {
+                assertEquals(4, spanCount);
+                assertEquals(ITEM_COUNT, itemCount);
+                sessionFrameCounts.add(stats.getFrameCount());
+            }
+        });
+        adapter.notifyItemChanged(0);
+        runFrames(100);
+        monitor.detach();
+
+        assertEquals(1, sessionFrameCounts.size());
+        assertFalse(recyclerView.getItemAnimator().isRunning());
+        // The frames until the change animation has ended.
+        assertTrue(sessionFrameCounts.get(0) > 1);
+    }
+
+    @Test
+    public void setAdapter_observesTheNewAdapterFromTheNextSession() throws Exception {
+        JankMonitor monitor = new JankMonitor(recyclerView, new JankMonitor.OnSessionListener() {
+            @Override
+            public void onSession(FrameStats stats, int spanCount, int itemCount) {
+                sessionItemCounts.add(itemCount);
+            }
+        });
+        RecyclerView.Adapter<RecyclerView.ViewHolder> other = createAdapter(ITEM_COUNT / 2);
+        recyclerView.setAdapter(other);
+        runFrames(5);
+        recyclerView.smoothScrollBy(0, 200);
+        runFrames(100);
+        assertEquals(ITEM_COUNT / 2, (int) sessionItemCounts.get(sessionItemCounts.size() - 1));
+
+        sessionItemCounts.clear();
+        other.notifyItemChanged(0);
+        runFrames(100);
+        monitor.detach();
+
+        assertEquals(1, sessionItemCounts.size());
+        assertEquals(ITEM_COUNT / 2, (int) sessionItemCounts.get(0));
+    }
+
+    @Test
+    public void idle_reportsNothing() throws Exception {
+        JankMonitor monitor = new JankMonitor(recyclerView, new JankMonitor.OnSessionListener() {
+            @Override
+            public void onSession(FrameStats stats, int spanCount, int itemCount) {
+                sessionFrameCounts.add(stats.getFrameCount());
+            }
+        });
+        runFrames(10);
+        monitor.detach();
+
+        assertTrue(sessionFrameCounts.isEmpty());
+    }
+
+    private RecyclerView.Adapter<RecyclerView.ViewHolder> createAdapter(final int itemCount){
+        return new RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+            @Override
+            public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                return new RecyclerView.ViewHolder(new View(activity)) {};
+            }
+
+            @Override
+            public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            }
+
+            @Override
+            public int getItemCount() {
+                return itemCount;
+            }
+        };
+    }
+
+    private static void runFrames(int count){
+        for(int i = 0; i < count; i++){
+            ShadowLooper.idleMainLooper(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
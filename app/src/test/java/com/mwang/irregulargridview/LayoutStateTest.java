@@ -0,0 +1,60 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the LayoutState.
+ */
+public class LayoutStateTest {
+
+    @Test
+    public void mergePlacementsInto_replacesThePlacementsFromThePosition() throws Exception {
+        PlacementTable table = new PlacementTable();
+        for(int i = 0; i < 3000; i++){
+            table.put(i, 1, 1, i % 4);
+        }
+        LayoutState state = new LayoutState();
+        state.putPlacement(2001, 2, 1, 0);
+        state.putPlacement(2000, 1, 2, 3);
+        state.putPlacement(2002, 1, 1, 2);
+        // The last item is removed by the change.
+        state.mergePlacementsInto(table, 2000, 2002);
+
+        assertEquals(2002, table.getLimit());
+        assertEquals(PlacementTable.makeCell(1, 1, 3), table.get(1999));
+        assertEquals(PlacementTable.makeCell(1, 2, 3), table.get(2000));
+        assertEquals(PlacementTable.makeCell(2, 1, 0), table.get(2001));
+        assertFalse(table.contains(2002));
+
+        // The overlay is cleared.
+        state.mergePlacementsInto(table, 2001, 2002);
+        assertEquals(2001, table.getLimit());
+        assertTrue(table.contains(2000));
+    }
+
+    @Test
+    public void set_reusesThePackersOfTheSameSpanCount() throws Exception {
+        SpanPacker top = new SpanPacker(4);
+        top.add(1, 2, 10);
+        SpanPacker bottom = new SpanPacker(4);
+        bottom.add(0, 4, 30);
+        LayoutState state = new LayoutState();
+        state.set(5, 3, top, bottom);
+        SpanPacker stateTop = state.spanTop;
+        assertNotSame(top, stateTop);
+        assertEquals(10, stateTop.getMax());
+        assertEquals(30, state.spanBottom.getMin());
+
+        top.add(0, 1, 20);
+        state.set(6, 4, top, bottom);
+        assertSame(stateTop, state.spanTop);
+        assertEquals(20, state.spanTop.get(0));
+        assertEquals(6, state.currentPosition);
+        assertEquals(4, state.firstAttachedItemPosition);
+        // Another span count.
+        state.set(0, 0, new SpanPacker(3), new SpanPacker(3));
+        assertEquals(3, state.spanTop.getSpanCount());
+    }
+}
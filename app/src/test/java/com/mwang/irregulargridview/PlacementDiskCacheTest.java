@@ -0,0 +1,54 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the PlacementDiskCache, with a temporary file.
+ */
+public class PlacementDiskCacheTest {
+
+    @Test
+    public void load_readsWhatWasSaved() throws Exception {
+        File file = File.createTempFile("placements", ".bin");
+        try {
+            PlacementTable placements = new PlacementTable();
+            SkylineCheckpoints checkpoints = new SkylineCheckpoints(4, 2);
+            SpanPacker packer = new SpanPacker(4);
+            for(int i = 0; i < 5; i++){
+                checkpoints.put(i, packer, 0, 1);
+                placements.put(i, 1, 2, i % 4);
+                packer.add(i % 4, 1, 2);
+            }
+            new PlacementDiskCache(file, 7L << 40).save(4, placements, checkpoints);
+
+            PlacementTable loaded = new PlacementTable();
+            SkylineCheckpoints loadedCheckpoints = new SkylineCheckpoints(4, 2);
+            assertTrue(new PlacementDiskCache(file, 7L << 40).load(4, loaded, loadedCheckpoints));
+            assertEquals(5, loaded.getLimit());
+            for(int i = 0; i < 5; i++){
+                assertEquals(placements.get(i), loaded.get(i));
+            }
+            assertEquals(checkpoints.getLimit(), loadedCheckpoints.getLimit());
+            loadedCheckpoints.restore(4, packer, 0, 1);
+            assertEquals(2, packer.getMax());
+            assertEquals(2, packer.getMin());
+
+            // Removing a position hides the backing cells from it.
+            loaded.removeFrom(3);
+            assertEquals(3, loaded.getLimit());
+            assertFalse(loaded.contains(3));
+
+            // Another version or span count is a miss.
+            assertFalse(new PlacementDiskCache(file, 8).load(4, new PlacementTable(),
+                    new SkylineCheckpoints(4, 2)));
+            assertFalse(new PlacementDiskCache(file, 7L << 40).load(2, new PlacementTable(),
+                    new SkylineCheckpoints(2, 2)));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the PlacementPrecomputer.
+ */
+public class PlacementPrecomputerTest {
+
+    @Test
+    public void run_matchesPackingAndCheckpoints() throws Exception {
+        final int spanCount = 5, interval = 16, itemCount = 1000;
+        Random random = new Random(3);
+        final int[] widthNums = new int[itemCount];
+        final int[] heightNums = new int[itemCount];
+        for(int i = 0; i < itemCount; i++){
+            widthNums[i] = 1 + random.nextInt(2);
+            heightNums[i] = 1 + random.nextInt(2);
+        }
+        PlacementPrecomputer precomputer = new PlacementPrecomputer(spanCount, itemCount,
+                new SpanSizeLookup() {
+                    @Override
+                    public int getWidthNum(int position) {
+                        return widthNums[position];
+                    }
+
+                    @Override
+                    public int getHeightNum(int position) {
+                        return heightNums[position];
+                    }
+                }, interval, 100);
+        precomputer.run();
+        assertFalse(precomputer.isFailed());
+        assertEquals(itemCount, precomputer.getCompletedCount());
+
+        SpanPacker packer = new SpanPacker(spanCount);
+        SkylineCheckpoints expected = new SkylineCheckpoints(spanCount, interval);
+        int[] startSpan = new int[itemCount];
+        int[] widthNum = new int[itemCount];
+        int[] top = new int[itemCount];
+        for(int i = 0; i < itemCount; i++){
+            expected.put(i, packer, 0, 1);
+            packer.pack(widthNums, heightNums, i, i + 1, 1, startSpan, widthNum, top);
+            int cell = precomputer.getCells()[i];
+            assertEquals(widthNum[i], PlacementTable.getWidthNum(cell));
+            assertEquals(heightNums[i], PlacementTable.getHeightNum(cell));
+            assertEquals(startSpan[i], PlacementTable.getStartSpan(cell));
+        }
+        int count = precomputer.getCheckpointCount(itemCount);
+        assertEquals(expected.getCount(), count);
+        assertArrayEquals(expected.toArray(0, count), precomputer.getCheckpointValues());
+    }
+
+    @Test
+    public void run_stopsAtAnInvalidSize() throws Exception {
+        PlacementPrecomputer precomputer = new PlacementPrecomputer(2, 10, new SpanSizeLookup() {
+            @Override
+            public int getWidthNum(int position) {
+                return 1;
+            }
+
+            @Override
+            public int getHeightNum(int position) {
+                return position == 5 ? 0 : 1;
+            }
+        }, 4, 4);
+        precomputer.run();
+        assertTrue(precomputer.isFailed());
+        // Only the first chunk is published.
+        assertEquals(4, precomputer.getCompletedCount());
+    }
+}
@@ -0,0 +1,56 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the steady-state scroll of the IrregularLayoutManager in a RecyclerView does not
+ * allocate, i.e., filling, binding and recycling the items once the placements,
+ * the checkpoints and the view pool are filled. Only scrollBy() is measured,
+ * see ScrollReplayHarness.replay().
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ScrollAllocationTest {
+
+    private static final int ITEM_COUNT = 4000;
+
+    @Test
+    public void scroll_doesNotAllocate() throws Exception {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        Random random = new Random(1);
+        int[] widthNums = new int[ITEM_COUNT];
+        int[] heightNums = new int[ITEM_COUNT];
+        for(int i = 0; i < ITEM_COUNT; i++){
+            widthNums[i] = 1 + random.nextInt(2);
+            heightNums[i] = 1 + random.nextInt(2);
+        }
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        int[] trace = ScrollReplayHarness.readTrace("fling_down_up.txt");
+        // Scroll through the items once, so the tables and the view pool are filled, and warm up.
+        harness.replay(trace);
+
+        ScrollReplayHarness.Report report = harness.getReport();
+        final long before = report.getAllocatedBytes();
+        final int frames = report.getFrameCount();
+        harness.replay(trace);
+
+        assertTrue(report.getFrameCount() > frames);
+        assertEquals(0, report.getAllocatedBytes() - before);
+    }
+}
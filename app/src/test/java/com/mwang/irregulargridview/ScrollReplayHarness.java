@@ -0,0 +1,474 @@
+package com.mwang.irregulargridview;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hosts an IrregularLayoutManager in a RecyclerView on the JVM with Robolectric,
+ * replays scroll traces and deletions frame by frame, and reports the binds, the measures,
+ * the allocations and the time of each frame.
+ * After each frame the layout is checked: the attached items are contiguous, they do not
+ * overlap, and each of them is where packing all items from position 0 puts it,
+ * i.e., the skyline of the layout manager is consistent with the sizes of the items.
+ */
+public class ScrollReplayHarness {
+
+    private final RecyclerView recyclerView;
+    private IrregularLayoutManager layoutManager;
+    private final GridAdapter adapter;
+    private final int width;
+    private final int height;
+    private final Report report = new Report();
+    private final java.lang.management.ThreadMXBean threadBean
+            = ManagementFactory.getThreadMXBean();
+    /* The bytes allocated by reading the allocated bytes twice, which are not counted. */
+    private final long allocationOverhead;
+
+    /**
+     * @param context
+     * @param spanCount
+     * @param width The size of the RecyclerView in pixels.
+     * @param height
+     * @param widthNums The widthNum of each item.
+     * @param heightNums The heightNum of each item.
+     */
+    public ScrollReplayHarness(Context context, int spanCount, int width, int height,
+                               int[] widthNums, int[] heightNums){
+        this.width = width;
+        this.height = height;
+        // The first call may allocate.
+        getAllocatedBytes();
+        final long allocated = getAllocatedBytes();
+        allocationOverhead = allocated < 0 ? 0 : getAllocatedBytes() - allocated;
+        adapter = new GridAdapter(context, widthNums, heightNums);
+        layoutManager = createLayoutManager(context, spanCount);
+        recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(adapter);
+        layoutFrame();
+        checkLayout();
+    }
+
+    private IrregularLayoutManager createLayoutManager(Context context, int spanCount){
+        IrregularLayoutManager layoutManager = new IrregularLayoutManager(context, spanCount);
+        layoutManager.setSpanSizeLookup(new SpanSizeLookup() {
+            @Override
+            public int getWidthNum(int position) {
+                report.lookups++;
+                return adapter.widthNums.get(position);
+            }
+
+            @Override
+            public int getHeightNum(int position) {
+                return adapter.heightNums.get(position);
+            }
+        });
+        layoutManager.setOnLayoutMetricsListener(new IrregularLayoutManager.OnLayoutMetricsListener() {
+            @Override
+            public void onLayoutMetrics(LayoutMetrics metrics) {
+                report.itemsPlaced += metrics.getItemsPlaced();
+                report.placementMisses += metrics.getPlacementMisses();
+                report.viewsRecycled += metrics.getViewsRecycled();
+            }
+        });
+        return layoutManager;
+    }
+
+    public IrregularLayoutManager getLayoutManager(){
+        return layoutManager;
+    }
+
+    public Report getReport(){
+        return report;
+    }
+
+    /**
+     * Read a trace from the test resources, one scroll distance per frame and per line.
+     * The lines starting with # are comments.
+     * @param name The name of the resource.
+     * @return The distances.
+     * @throws IOException
+     */
+    public static int[] readTrace(String name) throws IOException {
+        InputStream in = ScrollReplayHarness.class.getResourceAsStream(name);
+        assertNotNull("Missing trace " + name, in);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try{
+            List<Integer> distances = new ArrayList<>();
+            String line;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(!line.isEmpty() && !line.startsWith("#"))
+                    distances.add(Integer.parseInt(line));
+            }
+            int[] trace = new int[distances.size()];
+            for(int i = 0; i < trace.length; i++){
+                trace[i] = distances.get(i);
+            }
+            return trace;
+        }finally{
+            reader.close();
+        }
+    }
+
+    /**
+     * Scroll by each distance of the trace in one frame, and check the layout after each frame.
+     * @param trace
+     */
+    public void replay(int[] trace){
+        for(int dy : trace){
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+            recyclerView.scrollBy(0, dy);
+            endFrame(start, allocatedBefore);
+            checkLayout();
+        }
+    }
+
+    /**
+     * Delete the items like SimpleFragment.deleteSelectedItems(), i.e., from the last one,
+     * and notify each of them, then lay out in one frame and end the animations.
+     * @param positions The positions before the deletion, in any order.
+     */
+    public void delete(int... positions){
+        int[] sorted = positions.clone();
+        Arrays.sort(sorted);
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        for(int i = sorted.length - 1; i >= 0; i--){
+            adapter.widthNums.remove(sorted[i]);
+            adapter.heightNums.remove(sorted[i]);
+            adapter.notifyItemRemoved(sorted[i]);
+        }
+        layoutFrame();
+        endFrame(start, allocatedBefore);
+        recyclerView.getItemAnimator().endAnimations();
+        checkLayout();
+    }
+
+    /**
+     * Update the size of an item and notify it, then lay out in one frame and end the animations.
+     * @param position
+     * @param widthNum
+     * @param heightNum
+     */
+    public void update(int position, int widthNum, int heightNum){
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        adapter.widthNums.set(position, widthNum);
+        adapter.heightNums.set(position, heightNum);
+        adapter.notifyItemChanged(position);
+        layoutFrame();
+        endFrame(start, allocatedBefore);
+        recyclerView.getItemAnimator().endAnimations();
+        checkLayout();
+    }
+
+    /**
+     * Jump to the position with scrollToPosition(), and lay out in one frame.
+     * @param position
+     */
+    public void scrollToPosition(int position){
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        layoutManager.scrollToPosition(position);
+        layoutFrame();
+        endFrame(start, allocatedBefore);
+        checkLayout();
+    }
+
+    /**
+     * Jump to the offset with scrollToOffset(), and lay out in one frame.
+     * @param offset
+     */
+    public void scrollToOffset(int offset){
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        layoutManager.scrollToOffset(offset);
+        layoutFrame();
+        endFrame(start, allocatedBefore);
+        checkLayout();
+    }
+
+    /**
+     * Save the state of the layout manager through a Parcel and restore it in a new one,
+     * like the activity is recreated, then lay out in one frame.
+     */
+    public void recreate(){
+        Parcel parcel = Parcel.obtain();
+        try{
+            layoutManager.onSaveInstanceState().writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            IrregularLayoutManager.SavedState savedState =
+                    IrregularLayoutManager.SavedState.CREATOR.createFromParcel(parcel);
+            layoutManager = createLayoutManager(recyclerView.getContext(),
+                    layoutManager.getSpanCount());
+            layoutManager.onRestoreInstanceState(savedState);
+        }finally{
+            parcel.recycle();
+        }
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        recyclerView.setLayoutManager(layoutManager);
+        layoutFrame();
+        endFrame(start, allocatedBefore);
+        checkLayout();
+    }
+
+    /**
+     * Change the span count, e.g., like pinch-zoom, and lay out in one frame.
+     * @param spanCount
+     */
+    public void setSpanCount(int spanCount){
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        layoutManager.setSpanCount(spanCount);
+        layoutFrame();
+        endFrame(start, allocatedBefore);
+        checkLayout();
+    }
+
+    /**
+     * Remove the SpanSizeLookup, so the sizes are read from the bound items.
+     */
+    public void removeSpanSizeLookup(){
+        layoutManager.setSpanSizeLookup(null);
+    }
+
+    /**
+     * Request a layout and lay out in one frame, like the layout posted by a jump
+     * which is finished in several frames.
+     */
+    public void nextFrame(){
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        recyclerView.requestLayout();
+        layoutFrame();
+        endFrame(start, allocatedBefore);
+        checkLayout();
+    }
+
+    /**
+     * Check the invariants of the attached items.
+     */
+    public void checkLayout(){
+        final int childCount = layoutManager.getChildCount();
+        final int itemCount = adapter.getItemCount();
+        if(itemCount == 0){
+            assertEquals(0, childCount);
+            return;
+        }
+        assertTrue("Nothing is attached", childCount > 0);
+        final int spanCount = layoutManager.getSpanCount();
+        final int sizePerSpan = layoutManager.getSizePerSpan();
+        final int[] borders = SpanPacker.calculateSpanWidthBorders(null, spanCount,
+                width - recyclerView.getPaddingLeft() - recyclerView.getPaddingRight());
+
+        // Pack all items from position 0, in spans.
+        final int[] widthNums = toArray(adapter.widthNums);
+        final int[] heightNums = toArray(adapter.heightNums);
+        final int[] startSpan = new int[itemCount];
+        final int[] widthNum = new int[itemCount];
+        final int[] top = new int[itemCount];
+        new SpanPacker(spanCount).pack(widthNums, heightNums, 0, itemCount, 1,
+                startSpan, widthNum, top);
+
+        final Rect[] bounds = new Rect[childCount];
+        final int firstPosition = layoutManager.getPosition(layoutManager.getChildAt(0));
+        int origin = 0;
+        for(int i = 0; i < childCount; i++){
+            final View child = layoutManager.getChildAt(i);
+            final int position = layoutManager.getPosition(child);
+            assertEquals("Attached items are not contiguous", firstPosition + i, position);
+            bounds[i] = new Rect(layoutManager.getDecoratedLeft(child),
+                    layoutManager.getDecoratedTop(child), layoutManager.getDecoratedRight(child),
+                    layoutManager.getDecoratedBottom(child));
+            assertEquals("Wrong left of " + position, recyclerView.getPaddingLeft()
+                    + borders[startSpan[position]], bounds[i].left);
+            assertEquals("Wrong right of " + position, recyclerView.getPaddingLeft()
+                    + borders[startSpan[position] + widthNum[position]], bounds[i].right);
+            assertEquals("Wrong height of " + position, heightNums[position] * sizePerSpan,
+                    bounds[i].height());
+            // The items are offset by the same distance from the packed ones.
+            final int offset = bounds[i].top - top[position] * sizePerSpan;
+            if(i == 0){
+                origin = offset;
+            }else{
+                assertEquals("Wrong top of " + position, origin, offset);
+            }
+        }
+        for(int i = 0; i < childCount; i++){
+            for(int j = i + 1; j < childCount; j++){
+                assertFalse("Items " + (firstPosition + i) + " and " + (firstPosition + j)
+                        + " overlap", Rect.intersects(bounds[i], bounds[j]));
+            }
+        }
+    }
+
+    private void layoutFrame(){
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, width, height);
+    }
+
+    private void endFrame(long start, long allocatedBefore){
+        final long end = System.nanoTime();
+        // Read the allocations before the time is boxed.
+        if(allocatedBefore >= 0)
+            report.allocatedBytes += getAllocatedBytes() - allocatedBefore - allocationOverhead;
+        report.frameNanos.add(end - start);
+    }
+
+    /* The bytes allocated by this thread, or -1 if the JVM cannot tell. */
+    private long getAllocatedBytes(){
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+        return bean.isThreadAllocatedMemorySupported()
+                ? bean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static int[] toArray(List<Integer> list){
+        int[] array = new int[list.size()];
+        for(int i = 0; i < array.length; i++){
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * The costs of the replayed frames.
+     */
+    public class Report {
+
+        int binds;
+        int measures;
+        int itemsPlaced;
+        int placementMisses;
+        int viewsRecycled;
+        /* The sizes read from the SpanSizeLookup. */
+        int lookups;
+        long allocatedBytes;
+        final List<Long> frameNanos = new ArrayList<>();
+
+        public int getBinds(){
+            return binds;
+        }
+
+        public int getMeasures(){
+            return measures;
+        }
+
+        public int getLookups(){
+            return lookups;
+        }
+
+        public int getItemsPlaced(){
+            return itemsPlaced;
+        }
+
+        public int getFrameCount(){
+            return frameNanos.size();
+        }
+
+        /**
+         * @return The bytes allocated during the frames, including the ones by Robolectric.
+         */
+        public long getAllocatedBytes(){
+            return allocatedBytes;
+        }
+
+        public long getPercentileFrameNanos(double percent){
+            if(frameNanos.isEmpty())
+                return 0;
+            List<Long> sorted = new ArrayList<>(frameNanos);
+            java.util.Collections.sort(sorted);
+            final int rank = (int) Math.ceil(percent / 100 * sorted.size());
+            return sorted.get(Math.min(sorted.size(), Math.max(1, rank)) - 1);
+        }
+
+        @Override
+        public String toString(){
+            final int frames = Math.max(1, getFrameCount());
+            return "frames " + getFrameCount()
+                    + ", binds/frame " + (float) binds / frames
+                    + ", measures/frame " + (float) measures / frames
+                    + ", placed/frame " + (float) itemsPlaced / frames
+                    + ", packed " + placementMisses
+                    + ", recycled " + viewsRecycled
+                    + ", bytes/frame " + allocatedBytes / frames
+                    + ", p50 " + getPercentileFrameNanos(50) / 1000 + "us"
+                    + ", p99 " + getPercentileFrameNanos(99) / 1000 + "us";
+        }
+    }
+
+    /**
+     * An adapter whose views count the binds and the measures.
+     */
+    private class GridAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+        private final Context mContext;
+        final List<Integer> widthNums = new ArrayList<>();
+        final List<Integer> heightNums = new ArrayList<>();
+
+        GridAdapter(Context context, int[] widthNums, int[] heightNums){
+            mContext = context;
+            for(int i = 0; i < widthNums.length; i++){
+                this.widthNums.add(widthNums[i]);
+                this.heightNums.add(heightNums[i]);
+            }
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType){
+            return new RecyclerView.ViewHolder(new CountingView(mContext)) {};
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position){
+            report.binds++;
+            IrregularLayoutManager.LayoutParams lp =
+                    (IrregularLayoutManager.LayoutParams) holder.itemView.getLayoutParams();
+            lp.widthNum = widthNums.get(position);
+            lp.heightNum = heightNums.get(position);
+        }
+
+        @Override
+        public int getItemCount(){
+            return widthNums.size();
+        }
+    }
+
+    /**
+     * A tile with a child, like the items of the fragments.
+     */
+    private class CountingView extends FrameLayout {
+
+        CountingView(Context context){
+            super(context);
+            addView(new View(context));
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec){
+            report.measures++;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+    }
+}
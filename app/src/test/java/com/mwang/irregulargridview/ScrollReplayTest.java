@@ -0,0 +1,299 @@
+package com.mwang.irregulargridview;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays the recorded scroll traces and deletions with the ScrollReplayHarness,
+ * which checks the layout after each frame, and prints the costs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ScrollReplayTest {
+
+    private static final int ITEM_COUNT = 400;
+
+    private int[] widthNums;
+    private int[] heightNums;
+
+    @Before
+    public void setUp() throws Exception {
+        // The same sizes as the SimpleFragment.
+        Random random = new Random(1);
+        widthNums = new int[ITEM_COUNT];
+        heightNums = new int[ITEM_COUNT];
+        for(int i = 0; i < ITEM_COUNT; i++){
+            int nextInt = random.nextInt(100);
+            if(nextInt > 95){
+                widthNums[i] = 3;
+                heightNums[i] = 3;
+            }else if(nextInt > 80){
+                widthNums[i] = 2;
+                heightNums[i] = 2;
+            }else if(nextInt > 60){
+                widthNums[i] = 2;
+                heightNums[i] = 1;
+            }else if(nextInt > 40){
+                widthNums[i] = 1;
+                heightNums[i] = 2;
+            }else{
+                widthNums[i] = 1;
+                heightNums[i] = 1;
+            }
+        }
+    }
+
+    @Test
+    public void replay_keepsTheLayoutConsistent() throws Exception {
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        int[] trace = ScrollReplayHarness.readTrace("fling_down_up.txt");
+        harness.replay(trace);
+        harness.replay(trace);
+
+        ScrollReplayHarness.Report report = harness.getReport();
+        assertEquals(trace.length * 2, report.getFrameCount());
+        assertCostsWithinBounds(report);
+    }
+
+    @Test
+    public void delete_keepsTheLayoutConsistent() throws Exception {
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        int[] trace = ScrollReplayHarness.readTrace("fling_down_up.txt");
+        harness.replay(new int[]{1500});
+        // Items above the top, in the visible area and below the bottom.
+        harness.delete(2, 5, 30, 31, 32, 40, 120);
+        harness.replay(trace);
+        // Many items at once, like deleting a selection of photos.
+        int[] positions = new int[100];
+        for(int i = 0; i < positions.length; i++){
+            positions[i] = i * 2;
+        }
+        harness.delete(positions);
+        harness.replay(trace);
+
+        assertCostsWithinBounds(harness.getReport());
+    }
+
+    @Test
+    public void update_keepsThePlacementsOfUnchangedSizes() throws Exception {
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        harness.replay(new int[]{1500});
+        IrregularLayoutManager layoutManager = harness.getLayoutManager();
+        int position = layoutManager.getPosition(layoutManager.getChildAt(0)) + 2;
+        ScrollReplayHarness.Report report = harness.getReport();
+
+        // The same size, e.g., a selection, the items are not placed again.
+        long misses = report.placementMisses;
+        harness.update(position, widthNums[position], heightNums[position]);
+        assertEquals(misses, report.placementMisses);
+
+        // Another size, the items from the position are placed again.
+        harness.update(position, widthNums[position] == 3 ? 1 : 3, 3);
+        assertTrue(report.placementMisses > misses);
+        harness.replay(ScrollReplayHarness.readTrace("fling_down_up.txt"));
+    }
+
+    @Test
+    public void recreate_jumpsAboveTheAnchorFromACheckpoint() throws Exception {
+        // Enough items that the checkpoints before the anchor are more than a few hundred.
+        final int repeat = 60;
+        int[] manyWidthNums = new int[ITEM_COUNT * repeat];
+        int[] manyHeightNums = new int[ITEM_COUNT * repeat];
+        for(int i = 0; i < manyWidthNums.length; i++){
+            manyWidthNums[i] = widthNums[i % ITEM_COUNT];
+            manyHeightNums[i] = heightNums[i % ITEM_COUNT];
+        }
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, manyWidthNums, manyHeightNums);
+        harness.scrollToPosition(manyWidthNums.length - 100);
+        harness.recreate();
+
+        // About 1000 items above the offset, only the ones after the nearest checkpoint
+        // and the ones laid out are read.
+        ScrollReplayHarness.Report report = harness.getReport();
+        int lookups = report.getLookups();
+        harness.scrollToOffset(500 * harness.getLayoutManager().getSizePerSpan());
+        assertTrue("Packed from 0: " + (report.getLookups() - lookups),
+                report.getLookups() - lookups < 500);
+        harness.replay(ScrollReplayHarness.readTrace("fling_down_up.txt"));
+    }
+
+    @Test
+    public void scrollToPosition_withoutALookupBindsTheItemsBeforeItInSeveralFrames()
+            throws Exception {
+        final int repeat = 10;
+        int[] manyWidthNums = new int[ITEM_COUNT * repeat];
+        int[] manyHeightNums = new int[ITEM_COUNT * repeat];
+        for(int i = 0; i < manyWidthNums.length; i++){
+            manyWidthNums[i] = widthNums[i % ITEM_COUNT];
+            manyHeightNums[i] = heightNums[i % ITEM_COUNT];
+        }
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, manyWidthNums, manyHeightNums);
+        harness.removeSpanSizeLookup();
+        IrregularLayoutManager layoutManager = harness.getLayoutManager();
+        ScrollReplayHarness.Report report = harness.getReport();
+        final int target = manyWidthNums.length - 100;
+
+        // Each frame binds at most MAX_JUMP_BINDS items before the position,
+        // and the ones laid out, until the position is reached.
+        int binds = report.getBinds();
+        harness.scrollToPosition(target);
+        int frames = 1;
+        while(layoutManager.findViewByPosition(target) == null){
+            assertTrue("Binds in a frame: " + (report.getBinds() - binds),
+                    report.getBinds() - binds < 200);
+            assertTrue("Not reached in " + frames + " frames", frames < target);
+            binds = report.getBinds();
+            harness.nextFrame();
+            frames++;
+        }
+        harness.nextFrame();
+        assertEquals(0, layoutManager.getDecoratedTop(layoutManager.findViewByPosition(target)));
+
+        // The placements are kept, so the next jump is in one frame.
+        harness.scrollToPosition(0);
+        binds = report.getBinds();
+        harness.scrollToPosition(target);
+        assertNotNull(layoutManager.findViewByPosition(target));
+        assertTrue("Binds: " + (report.getBinds() - binds), report.getBinds() - binds < 200);
+        harness.replay(new int[]{-2000, 1000});
+    }
+
+    @Test
+    public void getItemRect_withoutALookupIsEstimatedUntilTheItemIsPlaced() throws Exception {
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        harness.removeSpanSizeLookup();
+        IrregularLayoutManager layoutManager = harness.getLayoutManager();
+        final int target = ITEM_COUNT - 50;
+        Rect rect = new Rect();
+        assertTrue(layoutManager.getItemRect(target, rect));
+        assertTrue("Estimated at " + rect.top, rect.top > 1920);
+
+        // The same as the layout after the jump places the items before it.
+        harness.scrollToPosition(target);
+        while(layoutManager.findViewByPosition(target) == null){
+            harness.nextFrame();
+        }
+        harness.nextFrame();
+        View view = layoutManager.findViewByPosition(target);
+        assertTrue(layoutManager.getItemRect(target, rect));
+        assertEquals(layoutManager.getDecoratedLeft(view), rect.left);
+        assertEquals(layoutManager.getDecoratedTop(view), rect.top);
+        assertEquals(layoutManager.getDecoratedBottom(view), rect.bottom);
+    }
+
+    @Test
+    public void precompute_keepsThePlacementsAfterARemoval() throws Exception {
+        final int repeat = 10;
+        int[] manyWidthNums = new int[ITEM_COUNT * repeat];
+        int[] manyHeightNums = new int[ITEM_COUNT * repeat];
+        for(int i = 0; i < manyWidthNums.length; i++){
+            manyWidthNums[i] = widthNums[i % ITEM_COUNT];
+            manyHeightNums[i] = heightNums[i % ITEM_COUNT];
+        }
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, manyWidthNums, manyHeightNums);
+        // Run the computation in the layout, so it is finished when it is applied.
+        harness.getLayoutManager().setPrecomputeExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        harness.delete(5);
+        assertEquals(manyWidthNums.length - 1,
+                harness.getLayoutManager().getPrecomputedItemCount());
+
+        // The removal does not hide the precomputed cells, only the items laid out are read.
+        ScrollReplayHarness.Report report = harness.getReport();
+        int lookups = report.getLookups();
+        harness.scrollToPosition(manyWidthNums.length - 100);
+        assertTrue("Packed from the removal: " + (report.getLookups() - lookups),
+                report.getLookups() - lookups < 500);
+        harness.replay(new int[]{-2000, 1000});
+    }
+
+    @Test
+    public void itemMeasureCache_skipsMeasuringTheReboundTilesOfTheSameSize() throws Exception {
+        int[] trace = ScrollReplayHarness.readTrace("fling_down_up.txt");
+        ScrollReplayHarness plain = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        plain.replay(trace);
+        ScrollReplayHarness cached = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        cached.getLayoutManager().setItemMeasureCacheEnabled(true);
+        cached.replay(trace);
+
+        // A recycled tile requests a layout when it is added again, so it is measured
+        // without the cache, even if it is rebound for an item of the same size.
+        assertEquals(plain.getReport().getBinds(), cached.getReport().getBinds());
+        assertTrue("Measures " + cached.getReport().getMeasures() + " of "
+                        + plain.getReport().getMeasures(),
+                cached.getReport().getMeasures() < plain.getReport().getMeasures());
+        // The decorations are calculated again with a layout, the tiles are still measured
+        // if the specs are changed.
+        cached.setSpanCount(3);
+        cached.replay(new int[]{-500, 800});
+    }
+
+    @Test
+    public void computeScrollVector_followsThePendingJump() throws Exception {
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        IrregularLayoutManager layoutManager = harness.getLayoutManager();
+        assertEquals(1f, layoutManager.computeScrollVectorForPosition(250).y, 0);
+
+        // The jump is not laid out yet, the items before it are above.
+        layoutManager.scrollToPosition(300);
+        assertEquals(-1f, layoutManager.computeScrollVectorForPosition(250).y, 0);
+        assertEquals(1f, layoutManager.computeScrollVectorForPosition(350).y, 0);
+    }
+
+    @Test
+    public void setSpanCount_keepsTheLayoutConsistent() throws Exception {
+        ScrollReplayHarness harness = new ScrollReplayHarness(RuntimeEnvironment.application,
+                4, 1080, 1920, widthNums, heightNums);
+        harness.replay(new int[]{3000});
+        harness.setSpanCount(3);
+        harness.replay(new int[]{500, -800});
+        harness.setSpanCount(6);
+        harness.setSpanCount(4);
+        harness.replay(ScrollReplayHarness.readTrace("fling_down_up.txt"));
+        // The span count is changed in the same pass as a removal, with the pre-layout.
+        harness.getLayoutManager().setSpanCount(5);
+        harness.delete(3, 40, 41);
+        harness.replay(new int[]{-300, 600});
+
+        assertCostsWithinBounds(harness.getReport());
+    }
+
+    /**
+     * The items are only bound and measured when they are laid out,
+     * i.e., nothing is bound to calculate the placements, since there is a SpanSizeLookup.
+     * @param report
+     */
+    private static void assertCostsWithinBounds(ScrollReplayHarness.Report report){
+        assertTrue(report.getBinds() > 0);
+        assertTrue("Bound " + report.getBinds() + " of " + report.getItemsPlaced() + " placed",
+                report.getBinds() <= report.getItemsPlaced());
+        assertTrue("Measured " + report.getMeasures() + " of " + report.getItemsPlaced()
+                + " placed", report.getMeasures() <= report.getItemsPlaced());
+    }
+}
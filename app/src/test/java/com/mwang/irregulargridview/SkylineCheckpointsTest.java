@@ -0,0 +1,89 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SkylineCheckpoints.
+ */
+public class SkylineCheckpointsTest {
+
+    @Test
+    public void restore_matchesPackingFromTheFirstItem() throws Exception {
+        final int spanCount = 4, interval = 8, itemCount = 100, unit = 10, origin = -35;
+        Random random = new Random(1);
+        int[] widthNums = new int[itemCount];
+        int[] heightNums = new int[itemCount];
+        for(int i = 0; i < itemCount; i++){
+            widthNums[i] = 1 + random.nextInt(2);
+            heightNums[i] = 1 + random.nextInt(2);
+        }
+        SkylineCheckpoints checkpoints = new SkylineCheckpoints(spanCount, interval);
+        SpanPacker packer = new SpanPacker(spanCount);
+        packer.reset(origin);
+        int[] startSpan = new int[itemCount];
+        int[] widthNum = new int[itemCount];
+        int[] top = new int[itemCount];
+        for(int i = 0; i < itemCount; i++){
+            checkpoints.put(i, packer, origin, unit);
+            packer.pack(widthNums, heightNums, i, i + 1, unit, startSpan, widthNum, top);
+        }
+        assertEquals(12 * interval + 1, checkpoints.getLimit());
+
+        SpanPacker restored = new SpanPacker(spanCount);
+        SpanPacker expected = new SpanPacker(spanCount);
+        for(int position = 0; position < itemCount; position++){
+            int current = checkpoints.restore(position, restored, 0, 1);
+            assertEquals(Math.min(position / interval, 12) * interval, current);
+            restored.pack(widthNums, heightNums, current, position, 1,
+                    new int[itemCount], new int[itemCount], new int[itemCount]);
+            expected.reset(0);
+            expected.pack(widthNums, heightNums, 0, position, 1,
+                    new int[itemCount], new int[itemCount], new int[itemCount]);
+            for(int i = 0; i < spanCount; i++){
+                assertEquals(expected.get(i), restored.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void getHeight_isTheLargestSpanOfTheCheckpoint() throws Exception {
+        SkylineCheckpoints checkpoints = new SkylineCheckpoints(3, 2);
+        SpanPacker packer = new SpanPacker(3);
+        packer.reset(7);
+        int[] widthNums = {2, 1, 1, 1};
+        int[] heightNums = {1, 3, 2, 1};
+        int[] out = new int[4];
+        for(int i = 0; i < 4; i++){
+            checkpoints.put(i, packer, 7, 10);
+            packer.pack(widthNums, heightNums, i, i + 1, 10, out, new int[4], new int[4]);
+        }
+        assertEquals(0, checkpoints.getHeight(0));
+        assertEquals(3, checkpoints.getHeight(1));
+        assertEquals(1, checkpoints.getTop(1));
+
+        SkylineCheckpoints copied = new SkylineCheckpoints(3, 2);
+        copied.copyFrom(1, checkpoints.toArray(1, 2));
+        assertEquals(3, copied.getHeight(1));
+    }
+
+    @Test
+    public void removeAfter_keepsCheckpointsBeforeThePosition() throws Exception {
+        SkylineCheckpoints checkpoints = new SkylineCheckpoints(2, 4);
+        SpanPacker packer = new SpanPacker(2);
+        for(int i = 0; i <= 12; i += 4){
+            checkpoints.put(i, packer, 0, 1);
+        }
+        checkpoints.removeAfter(9);
+        assertEquals(9, checkpoints.getLimit());
+        // A gap is not allowed.
+        checkpoints.put(16, packer, 0, 1);
+        assertEquals(9, checkpoints.getLimit());
+        checkpoints.clear();
+        assertEquals(0, checkpoints.restore(10, packer, 5, 1));
+        assertEquals(5, packer.getMax());
+    }
+}
@@ -0,0 +1,109 @@
+package com.mwang.irregulargridview;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SpanPacker, which runs on the JVM without a device.
+ */
+public class SpanPackerTest {
+
+    @Test
+    public void pack_fillsFromLeftToRight() throws Exception {
+        SpanPacker packer = new SpanPacker(4);
+        int[] widthNums = {1, 2, 1, 1};
+        int[] heightNums = {1, 1, 2, 1};
+        int[] startSpan = new int[4];
+        int[] widthNum = new int[4];
+        int[] top = new int[4];
+        packer.pack(widthNums, heightNums, 0, 4, 1, startSpan, widthNum, top);
+
+        assertArrayEquals(new int[]{0, 1, 3, 0}, startSpan);
+        assertArrayEquals(new int[]{1, 2, 1, 1}, widthNum);
+        assertArrayEquals(new int[]{0, 0, 0, 1}, top);
+        assertEquals(1, packer.getMin());
+        assertEquals(2, packer.getMax());
+    }
+
+    @Test
+    public void fitWidth_shrinksWhenNoTwoEmptySpans() throws Exception {
+        SpanPacker packer = new SpanPacker(3);
+        packer.add(1, 1, 1);
+        // Spans are {0, 1, 0}, there are no two sequential empty spans.
+        assertEquals(-1, packer.getFirstTwoEmptySpanIndex());
+        assertEquals(1, packer.fitWidth(2));
+        assertEquals(0, packer.findStartSpan(1));
+    }
+
+    @Test
+    public void fitWidth_shrinksToTheLongestRunOfEmptySpans() throws Exception {
+        SpanPacker packer = new SpanPacker(8);
+        packer.add(2, 1, 1);
+        packer.add(6, 1, 1);
+        // Spans are {0, 0, 1, 0, 0, 0, 1, 0}.
+        assertEquals(3, packer.fitWidth(3));
+        assertEquals(3, packer.findStartSpan(3));
+        assertEquals(3, packer.fitWidth(4));
+        assertEquals(2, packer.fitWidth(2));
+        assertEquals(0, packer.findStartSpan(2));
+        packer.reset(0);
+        assertEquals(8, packer.fitWidth(10));
+        assertEquals(0, packer.findStartSpan(8));
+    }
+
+    @Test
+    public void offset_keepsMinAndMax() throws Exception {
+        SpanPacker packer = new SpanPacker(2);
+        packer.add(0, 1, 10);
+        packer.offset(-4);
+        assertEquals(-4, packer.getMin());
+        assertEquals(6, packer.getMax());
+        assertEquals(6, packer.get(0));
+        assertEquals(1, packer.getFirstOneEmptySpanIndex());
+    }
+
+    @Test
+    public void skyline_matchesFullRescan() throws Exception {
+        Random r = new Random(7);
+        for(int spanCount = 2; spanCount <= 24; spanCount++){
+            SpanPacker packer = new SpanPacker(spanCount);
+            int[] spans = new int[spanCount];
+            for(int k = 0; k < 500; k++){
+                int widthNum = 1 + r.nextInt(Math.min(3, spanCount));
+                int startSpan = r.nextInt(spanCount - widthNum + 1);
+                int delta = r.nextInt(5) - 2;
+                packer.add(startSpan, widthNum, delta);
+                for(int i = 0; i < widthNum; i++)
+                    spans[startSpan + i] += delta;
+
+                int min = spans[0], max = spans[0];
+                for(int i = 1; i < spanCount; i++){
+                    min = Math.min(min, spans[i]);
+                    max = Math.max(max, spans[i]);
+                }
+                assertEquals(min, packer.getMin());
+                assertEquals(max, packer.getMax());
+                for(int n = 1; n <= 3; n++){
+                    int expected = -1;
+                    for(int i = 0; i + n <= spanCount && expected == -1; i++){
+                        boolean empty = true;
+                        for(int j = i; j < i + n; j++)
+                            empty &= spans[j] == min;
+                        if(empty)
+                            expected = i;
+                    }
+                    assertEquals(expected, packer.findFirstEmptySpans(n));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void calculateSpanWidthBorders_distributesRemainder() throws Exception {
+        int[] borders = SpanPacker.calculateSpanWidthBorders(null, 4, 10);
+        assertArrayEquals(new int[]{0, 2, 5, 7, 10}, borders);
+    }
+}
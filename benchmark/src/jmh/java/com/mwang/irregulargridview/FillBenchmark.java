@@ -0,0 +1,80 @@
+package com.mwang.irregulargridview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost of filling the grid, i.e., fillGrid() and layoutChunk() without views.
+ * The results are reported in ns per item.
+ */
+@State(Scope.Thread)
+public class FillBenchmark {
+
+    /* The number of items packed for each invocation. */
+    static final int BATCH = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    public int itemCount;
+
+    @Param({"2", "4", "8", "16", "24"})
+    public int spanCount;
+
+    @Param({"1x1:40,1x2:20,2x1:20,2x2:20", "1x1:100", "2x2:100",
+            "1x1:60,2x2:25,3x3:10,4x1:5"})
+    public String mix;
+
+    private GridDataset dataset;
+    private SpanPacker packer;
+    private DensePacker densePacker;
+    private int[] startSpan;
+    private int[] widthNum;
+    private int[] top;
+    private int position;
+
+    @Setup
+    public void setUp(){
+        dataset = new GridDataset(itemCount, mix, 42);
+        packer = new SpanPacker(spanCount);
+        densePacker = new DensePacker(spanCount);
+        startSpan = new int[itemCount];
+        widthNum = new int[itemCount];
+        top = new int[itemCount];
+    }
+
+    /**
+     * Pack the next BATCH items with the SpanPacker, starting again from the first item
+     * when the end of the data set is reached.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int pack(){
+        if(position + BATCH > itemCount){
+            position = 0;
+            packer.reset(0);
+        }
+        packer.pack(dataset.widthNums, dataset.heightNums, position, position + BATCH, 1,
+                startSpan, widthNum, top);
+        position += BATCH;
+        return packer.getMin();
+    }
+
+    /**
+     * The same as pack(), with the DensePacker of the dense mode.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int packDense(){
+        if(position + BATCH > itemCount){
+            position = 0;
+            densePacker.reset();
+        }
+        densePacker.pack(dataset.widthNums, dataset.heightNums, position, position + BATCH,
+                startSpan, widthNum, top);
+        position += BATCH;
+        return densePacker.getFloor();
+    }
+}
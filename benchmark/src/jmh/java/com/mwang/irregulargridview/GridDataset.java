@@ -0,0 +1,91 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A synthetic data set for the benchmarks, i.e., the widthNum and the heightNum of each item.
+ * The mix of sizes is given as "1x1:40,1x2:20,2x1:20,2x2:20",
+ * where "WxH:N" means N parts of the items have widthNum = W and heightNum = H.
+ */
+final class GridDataset {
+
+    int[] widthNums;
+    int[] heightNums;
+    int itemCount;
+
+    GridDataset(int itemCount, String mix, long seed){
+        this.itemCount = itemCount;
+        widthNums = new int[itemCount];
+        heightNums = new int[itemCount];
+
+        String[] parts = mix.split(",");
+        int[] w = new int[parts.length];
+        int[] h = new int[parts.length];
+        int[] weight = new int[parts.length];
+        int totalWeight = 0;
+        for(int i = 0; i < parts.length; i++){
+            String[] sizeAndWeight = parts[i].trim().split(":");
+            String[] size = sizeAndWeight[0].split("x");
+            w[i] = Integer.parseInt(size[0]);
+            h[i] = Integer.parseInt(size[1]);
+            weight[i] = Integer.parseInt(sizeAndWeight[1]);
+            totalWeight += weight[i];
+        }
+        if(totalWeight <= 0)
+            throw new IllegalArgumentException("Invalid size mix: " + mix);
+
+        Random r = new Random(seed);
+        for(int i = 0; i < itemCount; i++){
+            int next = r.nextInt(totalWeight);
+            int k = 0;
+            while(next >= weight[k]){
+                next -= weight[k];
+                k++;
+            }
+            widthNums[i] = w[k];
+            heightNums[i] = h[k];
+        }
+    }
+
+    private GridDataset(GridDataset source){
+        itemCount = source.itemCount;
+        widthNums = Arrays.copyOf(source.widthNums, source.widthNums.length);
+        heightNums = Arrays.copyOf(source.heightNums, source.heightNums.length);
+    }
+
+    GridDataset copy(){
+        return new GridDataset(this);
+    }
+
+    /**
+     * Remove items like the adapter does before notifyItemRangeRemoved().
+     * @param positionStart
+     * @param count
+     */
+    void remove(int positionStart, int count){
+        int moved = itemCount - positionStart - count;
+        System.arraycopy(widthNums, positionStart + count, widthNums, positionStart, moved);
+        System.arraycopy(heightNums, positionStart + count, heightNums, positionStart, moved);
+        itemCount -= count;
+    }
+
+    /**
+     * Insert items like the adapter does before notifyItemRangeInserted().
+     * The sizes of the inserted items are copied from the items after them.
+     * @param positionStart
+     * @param count
+     */
+    void insert(int positionStart, int count){
+        if(itemCount + count > widthNums.length){
+            int capacity = Math.max(widthNums.length * 2, itemCount + count);
+            widthNums = Arrays.copyOf(widthNums, capacity);
+            heightNums = Arrays.copyOf(heightNums, capacity);
+        }
+        System.arraycopy(widthNums, positionStart, widthNums, positionStart + count,
+                itemCount - positionStart);
+        System.arraycopy(heightNums, positionStart, heightNums, positionStart + count,
+                itemCount - positionStart);
+        itemCount += count;
+    }
+}
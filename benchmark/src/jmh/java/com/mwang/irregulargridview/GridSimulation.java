@@ -0,0 +1,372 @@
+package com.mwang.irregulargridview;
+
+import java.util.Arrays;
+
+/**
+ * A headless model of the layout loop of the IrregularLayoutManager.
+ * Views are replaced by the positions of the items, so that only the layout logic is measured,
+ * i.e., fillGrid(), scrollBy(), recycleTopInvisibleViews(), recycleBottomInvisibleViews(),
+ * scrollToPosition() and the removal and the insertion paths of onLayoutChildren().
+ * The placements are packed with SpanPlacement and the pre-layout keeps its state in
+ * LayoutState, the same classes the layout manager uses, so only the loop itself is modelled.
+ * The padding of the RecyclerView is 0.
+ */
+final class GridSimulation {
+
+    private final int sizePerSpan;
+    private final int height;
+    private GridDataset dataset;
+
+    private SpanPacker spanTop;
+    private SpanPacker spanBottom;
+    private int topBorder;
+    private int bottomBorder;
+    private int mCurrentPosition;
+    private int firstAttachedItemPosition;
+    private int lastAttachedItemPosition;
+    private int scrollOffset;
+
+    private PlacementTable itemPlacements;
+    private SkylineCheckpoints checkpoints;
+    private final LayoutState predictedState = new LayoutState();
+    private final LayoutState realStateBackup = new LayoutState();
+
+    /* The top and the bottom of the attached items, indexed by position, in content coordinates. */
+    private int[] childTop;
+    private int[] childBottom;
+    private int childCount;
+
+    /* The number of items laid out since the last reset of the counter. */
+    int itemsLaidOut;
+
+    /**
+     * @param dataset
+     * @param spanCount
+     * @param width The width of the RecyclerView.
+     * @param height The height of the RecyclerView.
+     */
+    GridSimulation(GridDataset dataset, int spanCount, int width, int height){
+        this.dataset = dataset;
+        sizePerSpan = width / spanCount;
+        this.height = height;
+        childTop = new int[dataset.itemCount];
+        childBottom = new int[dataset.itemCount];
+        spanTop = new SpanPacker(spanCount);
+        spanBottom = new SpanPacker(spanCount);
+        itemPlacements = new PlacementTable();
+        checkpoints = new SkylineCheckpoints(spanCount);
+        reset();
+    }
+
+    GridDataset getDataset(){
+        return dataset;
+    }
+
+    int getSizePerSpan(){
+        return sizePerSpan;
+    }
+
+    int getFirstAttachedItemPosition(){
+        return firstAttachedItemPosition;
+    }
+
+    int getLastAttachedItemPosition(){
+        return lastAttachedItemPosition;
+    }
+
+    /**
+     * @return true if the last item is attached and cannot be scrolled any more.
+     */
+    boolean isAtBottom(){
+        return lastAttachedItemPosition == dataset.itemCount - 1 && spanBottom.getMax() <= height;
+    }
+
+    boolean isAtTop(){
+        return firstAttachedItemPosition == 0 && spanTop.getMin() >= 0;
+    }
+
+    /**
+     * The first layout, the same as initializeLayoutParameters() and fillGrid().
+     * @param newDataset The data set to be laid out, or null to keep the current one.
+     */
+    void reset(GridDataset newDataset){
+        if(newDataset != null){
+            dataset = newDataset;
+        }
+        reset();
+    }
+
+    private void reset(){
+        topBorder = 0;
+        bottomBorder = height;
+        spanTop.reset(0);
+        spanBottom.reset(0);
+        mCurrentPosition = 0;
+        firstAttachedItemPosition = 0;
+        lastAttachedItemPosition = 0;
+        childCount = 0;
+        scrollOffset = 0;
+        itemPlacements.clear();
+        checkpoints.clear();
+        fillGrid(true);
+    }
+
+    /**
+     * The same as scrollBy() of the IrregularLayoutManager.
+     * @param dy
+     * @return The distance scrolled.
+     */
+    int scrollBy(int dy){
+        int delta;
+        if(dy > 0){
+            topBorder = 0;
+            bottomBorder += dy;
+            mCurrentPosition = lastAttachedItemPosition + 1;
+            fillGrid(true);
+            if(spanBottom.getMin() >= bottomBorder){
+                delta = dy;
+                bottomBorder -= dy;
+            }else{
+                bottomBorder = height;
+                if(spanBottom.getMax() - bottomBorder >= dy){
+                    delta = dy;
+                }else{
+                    delta = Math.max(0, spanBottom.getMax() - bottomBorder);
+                }
+            }
+            spanTop.offset(-delta);
+            spanBottom.offset(-delta);
+            scrollOffset += delta;
+            recycleTopInvisibleViews();
+        }else{
+            topBorder += dy;
+            bottomBorder = height;
+            mCurrentPosition = firstAttachedItemPosition - 1;
+            fillGrid(false);
+            if(spanTop.getMax() <= topBorder){
+                delta = dy;
+                topBorder -= dy;
+            }else{
+                topBorder = 0;
+                if(spanTop.getMin() - topBorder <= dy){
+                    delta = dy;
+                }else{
+                    delta = -Math.max(0, topBorder - spanTop.getMin());
+                }
+            }
+            spanTop.offset(-delta);
+            spanBottom.offset(-delta);
+            scrollOffset += delta;
+            recycleBottomInvisibleViews();
+        }
+        return delta;
+    }
+
+    /**
+     * The removal path, i.e., notifyItemRangeRemoved() for attached items,
+     * followed by the pre-layout and the real layout of onLayoutChildren().
+     * @param positionStart It should be an attached position.
+     * @param count
+     */
+    void removeAttachedItems(int positionStart, int count){
+        int firstChangedPosition = positionStart;
+
+        // The pre-layout, see layoutAttachedAndAppearingViews().
+        realStateBackup.set(mCurrentPosition, firstAttachedItemPosition, spanTop, spanBottom);
+        int lastAttachedItemPositionTemp = lastAttachedItemPosition;
+        spanBottom.copyFrom(spanTop);
+        mCurrentPosition = firstAttachedItemPosition;
+        predictedState.set(mCurrentPosition, firstAttachedItemPosition, spanTop, spanBottom);
+        while(predictedState.spanBottom.getMin() <= bottomBorder
+                && mCurrentPosition < dataset.itemCount){
+            int position = mCurrentPosition;
+            SpanPlacement.stack(spanBottom, obtainPlacement(position, spanBottom), sizePerSpan);
+            if(position < positionStart || position >= positionStart + count){
+                int fakeCell = predictedState.placeItem(dataset.widthNums[position],
+                        dataset.heightNums[position]);
+                SpanPlacement.stack(predictedState.spanBottom, fakeCell, sizePerSpan);
+                predictedState.currentPosition++;
+            }
+            mCurrentPosition++;
+        }
+        spanTop.copyFrom(realStateBackup.spanTop);
+        spanBottom.copyFrom(realStateBackup.spanBottom);
+        lastAttachedItemPosition = lastAttachedItemPositionTemp;
+
+        // The adapter removes the items.
+        dataset.remove(positionStart, count);
+
+        // The real layout, clear the cache from the firstChangedPosition
+        // and copy the placements calculated during the pre-layout.
+        predictedState.mergePlacementsInto(itemPlacements, firstChangedPosition,
+                dataset.itemCount);
+        checkpoints.removeAfter(firstChangedPosition);
+
+        mCurrentPosition = firstAttachedItemPosition;
+        lastAttachedItemPosition = firstAttachedItemPosition;
+        childCount = 0;
+        topBorder = 0;
+        bottomBorder = height;
+        spanBottom.copyFrom(spanTop);
+        fillGrid(true);
+    }
+
+    /**
+     * The same as scrollToPosition() followed by layoutFromPosition().
+     * @param position
+     */
+    void scrollToPosition(int position){
+        position = Math.max(0, Math.min(position, dataset.itemCount - 1));
+        calculatePrefixSpans(position, spanTop);
+        scrollOffset = spanTop.getMin();
+        spanTop.offset(-scrollOffset);
+        spanBottom.copyFrom(spanTop);
+        topBorder = 0;
+        bottomBorder = height;
+
+        childCount = 0;
+        mCurrentPosition = position;
+        firstAttachedItemPosition = position;
+        lastAttachedItemPosition = position;
+        fillGrid(true);
+        mCurrentPosition = position - 1;
+        fillGrid(false);
+        if(spanBottom.getMax() < bottomBorder){
+            scrollBy(spanBottom.getMax() - bottomBorder);
+        }
+    }
+
+    /**
+     * The same as calculatePrefixSpans() of the IrregularLayoutManager.
+     * @param position
+     * @param spans
+     */
+    private void calculatePrefixSpans(int position, SpanPacker spans){
+        for(int i = checkpoints.restore(position, spans, 0, sizePerSpan); i < position; i++){
+            checkpoints.put(i, spans, 0, sizePerSpan);
+            SpanPlacement.stack(spans, obtainPlacement(i, spans), sizePerSpan);
+        }
+        checkpoints.put(position, spans, 0, sizePerSpan);
+    }
+
+    /**
+     * The insertion path, i.e., notifyItemRangeInserted() followed by the real layout
+     * of onLayoutChildren(), which keeps the first attached item at the same place.
+     * @param positionStart
+     * @param count
+     */
+    void insertItems(int positionStart, int count){
+        int anchorPosition = firstAttachedItemPosition;
+        if(positionStart <= anchorPosition){
+            anchorPosition += count;
+        }
+        dataset.insert(positionStart, count);
+        if(dataset.itemCount > childTop.length){
+            childTop = Arrays.copyOf(childTop, dataset.widthNums.length);
+            childBottom = Arrays.copyOf(childBottom, dataset.widthNums.length);
+        }
+        itemPlacements.removeFrom(positionStart);
+        checkpoints.removeAfter(positionStart);
+
+        if(positionStart < firstAttachedItemPosition
+                || anchorPosition != firstAttachedItemPosition){
+            int offset = -spanTop.getMin();
+            calculatePrefixSpans(anchorPosition, spanTop);
+            scrollOffset = spanTop.getMin() + offset;
+            spanTop.offset(-scrollOffset);
+            spanBottom.copyFrom(spanTop);
+            childCount = 0;
+            mCurrentPosition = anchorPosition;
+            firstAttachedItemPosition = anchorPosition;
+            lastAttachedItemPosition = anchorPosition;
+            fillGrid(true);
+            mCurrentPosition = anchorPosition - 1;
+            fillGrid(false);
+        }else{
+            mCurrentPosition = firstAttachedItemPosition;
+            lastAttachedItemPosition = firstAttachedItemPosition;
+            childCount = 0;
+            spanBottom.copyFrom(spanTop);
+            fillGrid(true);
+        }
+    }
+
+    private void fillGrid(boolean isFillBottom){
+        while(((isFillBottom && spanBottom.getMin() <= bottomBorder)
+                || (!isFillBottom && spanTop.getMax() >= topBorder))
+                && mCurrentPosition >= 0 && mCurrentPosition < dataset.itemCount){
+            layoutChunk(isFillBottom);
+        }
+    }
+
+    private void layoutChunk(boolean isFillBottom){
+        int position = mCurrentPosition;
+        int cell = obtainPlacement(position, isFillBottom ? spanBottom : null);
+        int heightNum = PlacementTable.getHeightNum(cell);
+        int nextItemIndex = PlacementTable.getStartSpan(cell);
+        if(isFillBottom){
+            if(checkpoints.isCheckpoint(position)){
+                checkpoints.put(position, spanBottom, -scrollOffset, sizePerSpan);
+            }
+            int top = spanBottom.getMin();
+            childTop[position] = top + scrollOffset;
+            childBottom[position] = top + sizePerSpan * heightNum + scrollOffset;
+            SpanPlacement.stack(spanBottom, cell, sizePerSpan);
+            if(childCount == 0)
+                firstAttachedItemPosition = position;
+            childCount++;
+            lastAttachedItemPosition = position;
+            mCurrentPosition++;
+        }else{
+            int bottom = spanTop.get(nextItemIndex);
+            childTop[position] = bottom - sizePerSpan * heightNum + scrollOffset;
+            childBottom[position] = bottom + scrollOffset;
+            SpanPlacement.stack(spanTop, cell, -sizePerSpan);
+            childCount++;
+            firstAttachedItemPosition = position;
+            mCurrentPosition--;
+        }
+        itemsLaidOut++;
+    }
+
+    /**
+     * Get the placement of the position, and calculate it if it is not cached,
+     * see obtainPlacement() and layoutChunk().
+     * @param position
+     * @param spans The spans the item is packed into, or null when filling the top.
+     * @return The cell of the placement.
+     */
+    private int obtainPlacement(int position, SpanPacker spans){
+        int cell = itemPlacements.get(position);
+        if(cell != 0)
+            return cell;
+        return SpanPlacement.place(itemPlacements, position, dataset.widthNums[position],
+                dataset.heightNums[position], spans);
+    }
+
+    private void recycleTopInvisibleViews(){
+        for(int i = 0; i < childCount; i++){
+            int position = firstAttachedItemPosition + i;
+            if(childBottom[position] - scrollOffset > topBorder){
+                firstAttachedItemPosition += i;
+                childCount -= i;
+                return;
+            }
+            int cell = itemPlacements.get(position);
+            SpanPlacement.stack(spanTop, cell, sizePerSpan);
+        }
+    }
+
+    private void recycleBottomInvisibleViews(){
+        for(int i = childCount - 1; i >= 0; i--){
+            int position = lastAttachedItemPosition - (childCount - 1 - i);
+            if(childTop[position] - scrollOffset < bottomBorder){
+                lastAttachedItemPosition -= (childCount - 1 - i);
+                childCount = i + 1;
+                return;
+            }
+            int cell = itemPlacements.get(position);
+            SpanPlacement.stack(spanBottom, cell, -sizePerSpan);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.mwang.irregulargridview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost of notifyItemRangeInserted() at the top of the grid while the middle of it is shown,
+ * i.e., invalidating the placements, packing the items before the first attached item again
+ * and filling the screen. The results are reported in ns per insertion.
+ */
+@State(Scope.Thread)
+public class InsertionBenchmark {
+
+    static final int WIDTH = 1080;
+    static final int HEIGHT = 1920;
+
+    @Param({"1000", "10000"})
+    public int itemCount;
+
+    @Param({"4", "16"})
+    public int spanCount;
+
+    @Param({"1x1:40,1x2:20,2x1:20,2x2:20"})
+    public String mix;
+
+    /* The position of the inserted items, relative to the first attached item. */
+    @Param({"-100", "0", "10"})
+    public int insertOffset;
+
+    private GridSimulation simulation;
+
+    @Setup
+    public void setUp(){
+        simulation = new GridSimulation(new GridDataset(itemCount, mix, 42), spanCount,
+                WIDTH, HEIGHT);
+        simulation.scrollToPosition(itemCount / 2);
+    }
+
+    @Benchmark
+    public int insert(){
+        int position = Math.max(0, simulation.getFirstAttachedItemPosition() + insertOffset);
+        simulation.insertItems(position, 1);
+        return simulation.getFirstAttachedItemPosition();
+    }
+}
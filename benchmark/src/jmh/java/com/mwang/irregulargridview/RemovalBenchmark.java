@@ -0,0 +1,54 @@
+package com.mwang.irregulargridview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost of removing attached items, i.e., the pre-layout and the real layout
+ * of onLayoutChildren() after notifyItemRangeRemoved(), without views.
+ * The results are reported in ns per removal.
+ */
+@State(Scope.Thread)
+public class RemovalBenchmark {
+
+    static final int WIDTH = 1080;
+    static final int HEIGHT = 1920;
+
+    @Param({"10000", "100000", "1000000"})
+    public int itemCount;
+
+    @Param({"2", "4", "8", "16", "24"})
+    public int spanCount;
+
+    @Param({"1x1:40,1x2:20,2x1:20,2x2:20"})
+    public String mix;
+
+    /* The number of items removed at once. */
+    @Param({"1", "8"})
+    public int removedCount;
+
+    private GridDataset dataset;
+    private GridSimulation simulation;
+
+    @Setup
+    public void setUp(){
+        dataset = new GridDataset(itemCount, mix, 42);
+        simulation = new GridSimulation(dataset.copy(), spanCount, WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public int remove(){
+        // Start again with the whole data set when half of it is removed.
+        if(simulation.getDataset().itemCount < itemCount / 2){
+            simulation.reset(dataset.copy());
+        }
+        int first = simulation.getFirstAttachedItemPosition();
+        int last = simulation.getLastAttachedItemPosition();
+        int count = Math.min(removedCount, last - first + 1);
+        simulation.removeAttachedItems(first + (last - first + 1 - count) / 2, count);
+        return simulation.getLastAttachedItemPosition();
+    }
+}
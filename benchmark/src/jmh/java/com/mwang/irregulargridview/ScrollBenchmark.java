@@ -0,0 +1,61 @@
+package com.mwang.irregulargridview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost of scrolling, i.e., scrollBy(), fillGrid() and
+ * recycleTopInvisibleViews()/recycleBottomInvisibleViews() without views.
+ * It keeps scrolling with a fixed step and turns around at both ends of the grid,
+ * so that both the first layout of items and the layout from the cache are measured.
+ * The results are reported in ns per item laid out.
+ */
+@State(Scope.Thread)
+public class ScrollBenchmark {
+
+    /* The number of items laid out for each invocation. */
+    static final int BATCH = 256;
+    static final int WIDTH = 1080;
+    static final int HEIGHT = 1920;
+
+    @Param({"10000", "100000", "1000000"})
+    public int itemCount;
+
+    @Param({"2", "4", "8", "16", "24"})
+    public int spanCount;
+
+    @Param({"1x1:40,1x2:20,2x1:20,2x2:20", "1x1:100", "2x2:100"})
+    public String mix;
+
+    /* The distance of each scroll, in pixels. */
+    @Param({"48", "480"})
+    public int step;
+
+    private GridSimulation simulation;
+    private int direction = 1;
+
+    @Setup
+    public void setUp(){
+        simulation = new GridSimulation(new GridDataset(itemCount, mix, 42), spanCount,
+                WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int scroll(){
+        int scrolled = 0;
+        simulation.itemsLaidOut = 0;
+        while(simulation.itemsLaidOut < BATCH){
+            int delta = simulation.scrollBy(direction * step);
+            if(delta == 0){
+                direction = -direction;
+            }
+            scrolled += delta;
+        }
+        return scrolled;
+    }
+}
@@ -0,0 +1,54 @@
+package com.mwang.irregulargridview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * The cost of scrollToPosition() to random positions, i.e., restoring the nearest checkpoint,
+ * packing the items after it and filling the screen.
+ * All items are packed once in the setup, so the cached placements are used like after scrolling.
+ * The results are reported in ns per jump.
+ */
+@State(Scope.Thread)
+public class ScrollToPositionBenchmark {
+
+    static final int WIDTH = 1080;
+    static final int HEIGHT = 1920;
+
+    @Param({"10000", "100000", "1000000"})
+    public int itemCount;
+
+    @Param({"4", "16"})
+    public int spanCount;
+
+    @Param({"1x1:40,1x2:20,2x1:20,2x2:20"})
+    public String mix;
+
+    private GridSimulation simulation;
+    private int[] targets;
+    private int next;
+
+    @Setup
+    public void setUp(){
+        simulation = new GridSimulation(new GridDataset(itemCount, mix, 42), spanCount,
+                WIDTH, HEIGHT);
+        simulation.scrollToPosition(itemCount - 1);
+        Random r = new Random(42);
+        targets = new int[1024];
+        for(int i = 0; i < targets.length; i++){
+            targets[i] = r.nextInt(itemCount);
+        }
+    }
+
+    @Benchmark
+    public int scrollToPosition(){
+        next = (next + 1) % targets.length;
+        simulation.scrollToPosition(targets[next]);
+        return simulation.getFirstAttachedItemPosition();
+    }
+}